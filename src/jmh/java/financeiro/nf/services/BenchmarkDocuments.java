@@ -0,0 +1,92 @@
+package financeiro.nf.services;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import financeiro.nf.config.ProcessingConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Documentos sintéticos dos dois formatos, nos tamanhos usados pelos benchmarks:
+ * small (só os campos extraídos), typical (como os arquivos do FTP, ~2 KB) e
+ * large (discriminação longa e centenas de notas/itens no mesmo arquivo, alguns MB).
+ */
+final class BenchmarkDocuments {
+
+    private BenchmarkDocuments() {
+    }
+
+    static XmlProcessingService service(String engine) {
+        // Os logs INFO por nota dominariam a medição
+        ((Logger) LoggerFactory.getLogger("financeiro.nf")).setLevel(Level.ERROR);
+        ProcessingConfig config = new ProcessingConfig();
+        config.setParserEngine(engine);
+        return new XmlProcessingService(null, config, null, null, null, null, null,
+                new ProcessingMetrics(new SimpleMeterRegistry()));
+    }
+
+    static byte[] document(String format, String size) {
+        String xml = switch (format) {
+            case "nfse" -> nfse(size);
+            case "nfe" -> nfe(size);
+            default -> throw new IllegalArgumentException("Formato desconhecido: " + format);
+        };
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String nfse(String size) {
+        int notes = repetitions(size, 1, 2, 500);
+        String description = "Serviços médicos prestados conforme contrato 123/2023, incluindo consultas e exames. "
+                .repeat(repetitions(size, 1, 4, 20000));
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<NFSE>\n<NOTAS>\n");
+        for (int i = 0; i < notes; i++) {
+            xml.append("<NOTA>")
+                    .append("<NUMERO>").append(2024000123 + i).append("</NUMERO>")
+                    .append("<SERIE>E</SERIE>")
+                    .append("<DT_COMPETENCIA>2024-03-15</DT_COMPETENCIA>")
+                    .append("<PRESTADOR><CNPJ>12.345.678/0001-90</CNPJ>")
+                    .append("<PRE_RAZAO_SOCIAL>Clínica Exemplo &amp; Cia Ltda</PRE_RAZAO_SOCIAL></PRESTADOR>")
+                    .append("<TOMADOR><CNPJ>98.765.432/0001-10</CNPJ>")
+                    .append("<TOM_CPF_CNPJ>98.765.432/0001-10</TOM_CPF_CNPJ>")
+                    .append("<TOM_RAZAO_SOCIAL>Associação Beneficente</TOM_RAZAO_SOCIAL></TOMADOR>")
+                    .append("<VALORES><VL_SERVICO>1.500,00</VL_SERVICO>")
+                    .append("<VL_DESCONTO_INCONDICIONADO>10,50</VL_DESCONTO_INCONDICIONADO>")
+                    .append("<VL_LIQUIDO_NFSE>1.425,75</VL_LIQUIDO_NFSE></VALORES>")
+                    .append("<DISCRIMINACAO><![CDATA[").append(i == 0 ? description : "Parcela " + i)
+                    .append("]]></DISCRIMINACAO>")
+                    .append("</NOTA>\n");
+        }
+        return xml.append("</NOTAS>\n</NFSE>\n").toString();
+    }
+
+    private static String nfe(String size) {
+        int items = repetitions(size, 1, 10, 20000);
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<ns:SDTNFe xmlns:ns=\"NFe\">\n<ns:Reg20>\n");
+        for (int i = 0; i < items; i++) {
+            xml.append("<ns:Reg20Item>")
+                    .append("<ns:TipoNf>N</ns:TipoNf>")
+                    .append("<ns:NumNf>").append(String.format("%06d", 456 + i)).append("</ns:NumNf>")
+                    .append("<ns:SerNf>1</ns:SerNf>")
+                    .append("<ns:DtEmiNf>05/02/2024</ns:DtEmiNf>")
+                    .append("<ns:CpfCnpjPre>11.222.333/0001-44</ns:CpfCnpjPre>")
+                    .append("<ns:CpfCnpjTom>555.666.777-88</ns:CpfCnpjTom>")
+                    .append("<ns:VlNFS>2.340,10</ns:VlNFS>")
+                    .append("</ns:Reg20Item>\n");
+        }
+        return xml.append("</ns:Reg20>\n</ns:SDTNFe>\n").toString();
+    }
+
+    private static int repetitions(String size, int small, int typical, int large) {
+        return switch (size) {
+            case "small" -> small;
+            case "typical" -> typical;
+            case "large" -> large;
+            default -> throw new IllegalArgumentException("Tamanho desconhecido: " + size);
+        };
+    }
+}
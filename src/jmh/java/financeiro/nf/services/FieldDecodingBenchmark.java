@@ -0,0 +1,99 @@
+package financeiro.nf.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversões de campo chamadas uma ou mais vezes por nota, e a captura do início do arquivo
+ * para o DS_XML_COMPL ({@link XmlCaptureInputStream}), que substituiu a serialização do
+ * documento DOM de volta para texto.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldDecodingBenchmark {
+
+    private XmlProcessingService service;
+
+    // Entradas em campos do estado (não finais), senão o JIT pode dobrar as constantes
+    private String isoDate = "2024-03-15";
+    private String brDate = "05/02/2024";
+    private String amount = "1.500,00";
+    private String cnpj = "12.345.678/0001-90";
+
+    @Setup
+    public void setUp() {
+        service = BenchmarkDocuments.service("stax");
+    }
+
+    /**
+     * Só a captura depende do tamanho do arquivo.
+     */
+    @State(Scope.Benchmark)
+    public static class Document {
+        @Param({"small", "typical", "large"})
+        public String size;
+
+        private byte[] content;
+        private final byte[] buffer = new byte[8192];
+
+        @Setup
+        public void setUp() {
+            content = BenchmarkDocuments.document("nfse", size);
+        }
+    }
+
+    @Benchmark
+    public LocalDateTime parseDateTimeIso() {
+        return service.parseDateTime(isoDate);
+    }
+
+    @Benchmark
+    public LocalDateTime parseDateTimeBr() {
+        return service.parseDateTime(brDate);
+    }
+
+    @Benchmark
+    public BigDecimal parseBigDecimal() {
+        return service.parseBigDecimal(amount);
+    }
+
+    @Benchmark
+    public String cleanCnpj() {
+        return service.cleanCnpj(cnpj);
+    }
+
+    @Benchmark
+    public String captureXmlCompl(Document document) throws IOException {
+        try (XmlCaptureInputStream capture = new XmlCaptureInputStream(new ByteArrayInputStream(document.content),
+                XmlProcessingService.XML_COMPL_MAX_LENGTH)) {
+            drain(capture, document.buffer);
+            return capture.capturedText("UTF-8");
+        }
+    }
+
+    private static void drain(InputStream in, byte[] buffer) throws IOException {
+        while (in.read(buffer) >= 0) {
+            // Consome o stream como o parser faria
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package financeiro.nf.services;
+
+import financeiro.nf.models.NfXmlEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extração completa de um arquivo ({@link XmlProcessingService#parseXml}), dos bytes às entidades
+ * (uma por nota/item), incluindo a captura do DS_XML_COMPL. O tamanho large de cada formato mede
+ * um arquivo diferente (ver {@link BenchmarkDocuments}):
+ * <ul>
+ *     <li>NFS-e: lote de 500 notas, a primeira com uma discriminação de cerca de 1,7 MB;</li>
+ *     <li>NF-e: 20000 itens Reg20Item, cada um com o seu número de nota.</li>
+ * </ul>
+ * Com {@code -prof gc} mostra também a alocação por arquivo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlExtractionBenchmark {
+
+    @Param({"nfse", "nfe"})
+    public String format;
+
+    @Param({"small", "typical", "large"})
+    public String size;
+
+    @Param({"stax", "dom"})
+    public String engine;
+
+    private XmlProcessingService service;
+    private byte[] document;
+
+    @Setup
+    public void setUp() {
+        service = BenchmarkDocuments.service(engine);
+        document = BenchmarkDocuments.document(format, size);
+    }
+
+    @Benchmark
+    public List<NfXmlEntity> parseXml() throws IOException {
+        return service.parseXml(new ByteArrayInputStream(document), "benchmark.xml");
+    }
+}
@@ -0,0 +1,61 @@
+package financeiro.nf.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "cluster")
+public class ClusterConfig {
+    // Reserva de arquivos na tabela NF_XML_CLAIM, para vários nós dividirem a mesma pasta FTP
+    private boolean claimEnabled = false;
+
+    // Identificação do nó nas reservas (padrão: pid@host)
+    private String nodeId;
+
+    // Validade da reserva (s) e intervalo do heartbeat que a renova (ms)
+    private long leaseDuration = 300;
+    private long heartbeatInterval = 60000;
+
+    // Reservas vencidas há mais que isso (s) são apagadas pelo heartbeat
+    private long expiredRetention = 86400;
+
+    public boolean isClaimEnabled() {
+        return claimEnabled;
+    }
+
+    public void setClaimEnabled(boolean claimEnabled) {
+        this.claimEnabled = claimEnabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    public void setLeaseDuration(long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public long getExpiredRetention() {
+        return expiredRetention;
+    }
+
+    public void setExpiredRetention(long expiredRetention) {
+        this.expiredRetention = expiredRetention;
+    }
+}
@@ -12,6 +12,49 @@ public class FtpConfig {
     private String password;
     private String xmlDir;
 
+    // Pastas de arquivamento (padrão: processed/ e error/ dentro da pasta de entrada),
+    // particionadas por data conforme o padrão; vazio = pasta única
+    private String processedDir;
+    private String errorDir;
+    private String archivePartitionPattern = "yyyy/MM/dd";
+
+    // Timeouts e keep-alive das conexões (ms, exceto keep-alive em segundos)
+    private int connectTimeout = 15000;
+    private int dataTimeout = 60000;
+    private long controlKeepAliveTimeout = 300;
+
+    // Novas tentativas de conexão e de respostas transitórias (4xx), com espera exponencial a partir
+    // de retry-delay (ms) e jitter; após circuit-failure-threshold falhas seguidas o circuito abre e
+    // as chamadas falham na hora por circuit-open-duration (ms); uma chamada de teste sem resposta
+    // por circuit-probe-timeout (ms) libera outra
+    private int retryCount = 3;
+    private long retryDelay = 5000;
+    private int circuitFailureThreshold = 5;
+    private long circuitOpenDuration = 60000;
+    private long circuitProbeTimeout = 120000;
+
+    // Pool de sessões FTP autenticadas
+    private int poolMaxTotal = 4;
+    private int poolMaxIdle = 4;
+    private int poolMinIdle = 0;
+    private long poolMaxWait = 30000;
+    private long poolValidationInterval = 30000;
+    private long poolIdleEvictionTime = 120000;
+    private long poolEvictionInterval = 30000;
+    private long poolMaxLifetime = 1800000;
+
+    // Listagem incremental: MLSD quando suportado e leitura em páginas
+    private boolean mlsdEnabled = true;
+    private int listPageSize = 500;
+
+    // Detecção de upload concluído: marcadores (.done/.ok) ou arquivo sem mudança por pelo menos
+    // stable-unchanged-period (ms) entre listagens; com data do servidor mais antiga que o período
+    // de silêncio (ms), aceita de imediato
+    private String stableMarkers = ".done,.ok";
+    private boolean stableRequireMarker = false;
+    private long stableQuietPeriod = 60000;
+    private long stableUnchangedPeriod = 10000;
+
     public String getHost() {
         return host;
     }
@@ -51,4 +94,204 @@ public class FtpConfig {
     public void setXmlDir(String xmlDir) {
         this.xmlDir = xmlDir;
     }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getDataTimeout() {
+        return dataTimeout;
+    }
+
+    public void setDataTimeout(int dataTimeout) {
+        this.dataTimeout = dataTimeout;
+    }
+
+    public long getControlKeepAliveTimeout() {
+        return controlKeepAliveTimeout;
+    }
+
+    public void setControlKeepAliveTimeout(long controlKeepAliveTimeout) {
+        this.controlKeepAliveTimeout = controlKeepAliveTimeout;
+    }
+
+    public int getPoolMaxTotal() {
+        return poolMaxTotal;
+    }
+
+    public void setPoolMaxTotal(int poolMaxTotal) {
+        this.poolMaxTotal = poolMaxTotal;
+    }
+
+    public int getPoolMaxIdle() {
+        return poolMaxIdle;
+    }
+
+    public void setPoolMaxIdle(int poolMaxIdle) {
+        this.poolMaxIdle = poolMaxIdle;
+    }
+
+    public int getPoolMinIdle() {
+        return poolMinIdle;
+    }
+
+    public void setPoolMinIdle(int poolMinIdle) {
+        this.poolMinIdle = poolMinIdle;
+    }
+
+    public long getPoolMaxWait() {
+        return poolMaxWait;
+    }
+
+    public void setPoolMaxWait(long poolMaxWait) {
+        this.poolMaxWait = poolMaxWait;
+    }
+
+    public long getPoolValidationInterval() {
+        return poolValidationInterval;
+    }
+
+    public void setPoolValidationInterval(long poolValidationInterval) {
+        this.poolValidationInterval = poolValidationInterval;
+    }
+
+    public long getPoolIdleEvictionTime() {
+        return poolIdleEvictionTime;
+    }
+
+    public void setPoolIdleEvictionTime(long poolIdleEvictionTime) {
+        this.poolIdleEvictionTime = poolIdleEvictionTime;
+    }
+
+    public long getPoolEvictionInterval() {
+        return poolEvictionInterval;
+    }
+
+    public void setPoolEvictionInterval(long poolEvictionInterval) {
+        this.poolEvictionInterval = poolEvictionInterval;
+    }
+
+    public long getPoolMaxLifetime() {
+        return poolMaxLifetime;
+    }
+
+    public void setPoolMaxLifetime(long poolMaxLifetime) {
+        this.poolMaxLifetime = poolMaxLifetime;
+    }
+
+    public boolean isMlsdEnabled() {
+        return mlsdEnabled;
+    }
+
+    public void setMlsdEnabled(boolean mlsdEnabled) {
+        this.mlsdEnabled = mlsdEnabled;
+    }
+
+    public int getListPageSize() {
+        return listPageSize;
+    }
+
+    public void setListPageSize(int listPageSize) {
+        this.listPageSize = listPageSize;
+    }
+
+    public String getProcessedDir() {
+        return processedDir;
+    }
+
+    public void setProcessedDir(String processedDir) {
+        this.processedDir = processedDir;
+    }
+
+    public String getErrorDir() {
+        return errorDir;
+    }
+
+    public void setErrorDir(String errorDir) {
+        this.errorDir = errorDir;
+    }
+
+    public String getArchivePartitionPattern() {
+        return archivePartitionPattern;
+    }
+
+    public void setArchivePartitionPattern(String archivePartitionPattern) {
+        this.archivePartitionPattern = archivePartitionPattern;
+    }
+
+    public String getStableMarkers() {
+        return stableMarkers;
+    }
+
+    public void setStableMarkers(String stableMarkers) {
+        this.stableMarkers = stableMarkers;
+    }
+
+    public boolean isStableRequireMarker() {
+        return stableRequireMarker;
+    }
+
+    public void setStableRequireMarker(boolean stableRequireMarker) {
+        this.stableRequireMarker = stableRequireMarker;
+    }
+
+    public long getStableQuietPeriod() {
+        return stableQuietPeriod;
+    }
+
+    public void setStableQuietPeriod(long stableQuietPeriod) {
+        this.stableQuietPeriod = stableQuietPeriod;
+    }
+
+    public long getStableUnchangedPeriod() {
+        return stableUnchangedPeriod;
+    }
+
+    public void setStableUnchangedPeriod(long stableUnchangedPeriod) {
+        this.stableUnchangedPeriod = stableUnchangedPeriod;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    public void setCircuitFailureThreshold(int circuitFailureThreshold) {
+        this.circuitFailureThreshold = circuitFailureThreshold;
+    }
+
+    public long getCircuitOpenDuration() {
+        return circuitOpenDuration;
+    }
+
+    public void setCircuitOpenDuration(long circuitOpenDuration) {
+        this.circuitOpenDuration = circuitOpenDuration;
+    }
+
+    public long getCircuitProbeTimeout() {
+        return circuitProbeTimeout;
+    }
+
+    public void setCircuitProbeTimeout(long circuitProbeTimeout) {
+        this.circuitProbeTimeout = circuitProbeTimeout;
+    }
 }
@@ -0,0 +1,100 @@
+package financeiro.nf.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "file.local-source")
+public class LocalSourceConfig {
+    // Pasta local/NFS observada via WatchService, como alternativa à varredura do FTP
+    private boolean enabled = false;
+    private String directory;
+
+    // Pastas de arquivamento (padrão: processed/ e error/ dentro da pasta observada)
+    private String processedDir;
+    private String errorDir;
+    private String archivePartitionPattern = "yyyy/MM/dd";
+
+    // Tempo sem novos eventos de escrita (ms) antes de processar o arquivo
+    private long settleDelay = 500;
+    private int workers = 2;
+
+    // Espera (ms) até tentar de novo um arquivo que ficou na pasta por falha transitória
+    private long retryDelay = 60000;
+
+    // Varredura periódica (ms) para arquivos que não geram evento, como os gravados por outro
+    // cliente NFS; 0 desliga
+    private long rescanInterval = 60000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public String getProcessedDir() {
+        return processedDir;
+    }
+
+    public void setProcessedDir(String processedDir) {
+        this.processedDir = processedDir;
+    }
+
+    public String getErrorDir() {
+        return errorDir;
+    }
+
+    public void setErrorDir(String errorDir) {
+        this.errorDir = errorDir;
+    }
+
+    public String getArchivePartitionPattern() {
+        return archivePartitionPattern;
+    }
+
+    public void setArchivePartitionPattern(String archivePartitionPattern) {
+        this.archivePartitionPattern = archivePartitionPattern;
+    }
+
+    public long getSettleDelay() {
+        return settleDelay;
+    }
+
+    public void setSettleDelay(long settleDelay) {
+        this.settleDelay = settleDelay;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public long getRescanInterval() {
+        return rescanInterval;
+    }
+
+    public void setRescanInterval(long rescanInterval) {
+        this.rescanInterval = rescanInterval;
+    }
+}
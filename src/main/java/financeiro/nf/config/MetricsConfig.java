@@ -0,0 +1,71 @@
+package financeiro.nf.config;
+
+import financeiro.nf.services.AdaptiveScheduler;
+import financeiro.nf.services.CircuitBreaker;
+import financeiro.nf.services.CommitRateTracker;
+import financeiro.nf.services.FileSpool;
+import financeiro.nf.services.FtpService;
+import financeiro.nf.services.ReadinessService;
+import financeiro.nf.services.ResilienceService;
+import financeiro.nf.services.RetryLedgerService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Gauges do estado do processamento. O pool do Hikari já é publicado pelo Actuator
+ * ({@code hikaricp.connections.*}).
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder processingGauges(AdaptiveScheduler scheduler, FtpService ftpService,
+                                        CommitRateTracker commitRateTracker, ReadinessService readinessService,
+                                        FileSpool fileSpool, ResilienceService resilience,
+                                        RetryLedgerService retryLedger) {
+        return registry -> {
+            Gauge.builder("nf.backlog", scheduler, AdaptiveScheduler::getBacklog)
+                    .description("Arquivos prontos que ficaram para o próximo ciclo")
+                    .register(registry);
+            Gauge.builder("nf.deferred", scheduler, AdaptiveScheduler::getDeferred)
+                    .description("Arquivos aguardando o fim do upload")
+                    .register(registry);
+            Gauge.builder("nf.scheduler.delay", scheduler, AdaptiveScheduler::getCurrentDelay)
+                    .description("Intervalo até o próximo ciclo")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            Gauge.builder("nf.ftp.pool.active", ftpService, FtpService::getPoolActive)
+                    .description("Sessões FTP emprestadas")
+                    .register(registry);
+            Gauge.builder("nf.ftp.pool.idle", ftpService, FtpService::getPoolIdle)
+                    .description("Sessões FTP ociosas no pool")
+                    .register(registry);
+            Gauge.builder("nf.ftp.pool.waiters", ftpService, FtpService::getPoolWaiters)
+                    .description("Threads esperando uma sessão FTP")
+                    .register(registry);
+            Gauge.builder("nf.spool.bytes", fileSpool, FileSpool::getUsedBytes)
+                    .description("Espaço ocupado no spool local por arquivos baixados e ainda não lidos")
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder("nf.retry.waiting", retryLedger, RetryLedgerService::getWaiting)
+                    .description("Arquivos com falha anterior que ficaram fora do último ciclo à espera da vez")
+                    .register(registry);
+            Gauge.builder("nf.commits.last.hour", commitRateTracker, CommitRateTracker::getCommitsLastHour)
+                    .description("Commits de gravação na última hora")
+                    .register(registry);
+            for (CircuitBreaker circuit : List.of(resilience.getFtpCircuit(), resilience.getDatabaseCircuit())) {
+                Gauge.builder("nf.circuit.open", circuit, breaker -> breaker.isOpen() ? 1 : 0)
+                        .description("Circuito aberto (1), recusando chamadas, ou não (0)")
+                        .tag("target", circuit.getName())
+                        .register(registry);
+            }
+            Gauge.builder("nf.ready", readinessService, readiness -> readiness.isReady() ? 1 : 0)
+                    .description("FTP e banco acessíveis (1) ou não (0)")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,334 @@
+package financeiro.nf.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "file.processing")
+public class ProcessingConfig {
+    public static final String PARSER_ENGINE_STAX = "stax";
+    public static final String PARSER_ENGINE_DOM = "dom";
+    public static final String PERSIST_MODE_MERGE = "merge";
+    public static final String PERSIST_MODE_JPA = "jpa";
+
+    // Agendamento adaptativo: sem intervalo enquanto houver backlog; ocioso, o intervalo parte
+    // de scheduler-min-delay e é multiplicado a cada ciclo vazio até scheduler-max-delay (ms)
+    private boolean adaptiveScheduling = true;
+    private long initialDelay = 10000;
+    private long delay = 60000;
+    private long schedulerMinDelay = 5000;
+    private long schedulerMaxDelay = 120000;
+    private double schedulerBackoffMultiplier = 2.0;
+
+    // Intervalo (ms) entre verificações de FTP e banco enquanto algum não responde; o primeiro
+    // ciclo só é agendado quando ambos respondem
+    private long readinessCheckInterval = 10000;
+
+    // Orçamento de um ciclo: arquivos e tempo (ms) antes de listar de novo
+    private int cycleMaxFiles = 1000;
+    private long cycleMaxDuration = 300000;
+
+    // Motor de extração do XML: stax (passada única) ou dom (árvore completa)
+    private String parserEngine = PARSER_ENGINE_STAX;
+
+    // Pipeline paralelo (download → parse → persistência → move)
+    private boolean pipelineEnabled = true;
+    private int fetchWorkers = 2;
+    private int parseWorkers = 2;
+    private int persistWorkers = 2;
+    private int moveWorkers = 1;
+    private int queueCapacity = 50;
+
+    // Uma virtual thread por arquivo (download → parse → persistência → move), no lugar do pipeline;
+    // sessões FTP e conexões simultâneas limitadas por semáforo (0 = ftp.pool-max-total e
+    // spring.datasource.hikari.maximum-pool-size)
+    private boolean virtualThreadsEnabled = false;
+    private int maxFtpSessions = 0;
+    private int maxDbConnections = 0;
+    // Arquivos baixados e ainda não persistidos ao mesmo tempo (conteúdo e notas em memória)
+    private int maxInFlightFiles = 50;
+
+    // Notas gravadas por lote JDBC (manter igual a hibernate.jdbc.batch_size)
+    private int persistBatchSize = 50;
+
+    // Notas por transação no estágio de persistência (1 = um commit por arquivo)
+    private int commitChunkSize = 200;
+
+    // Gravação: merge (MERGE idempotente em lote) ou jpa (existsBy... seguido de insert)
+    private String persistMode = PERSIST_MODE_MERGE;
+
+    // Falhas transitórias do banco (conexão, timeout, failover): novas tentativas com espera
+    // exponencial e circuito que abre após db-circuit-failure-threshold falhas seguidas (ms);
+    // uma chamada de teste sem resposta por db-circuit-probe-timeout (ms) libera outra
+    private int dbRetryCount = 2;
+    private long dbRetryDelay = 1000;
+    private int dbCircuitFailureThreshold = 5;
+    private long dbCircuitOpenDuration = 30000;
+    private long dbCircuitProbeTimeout = 60000;
+
+    // Índice de duplicidade em memória (Bloom + conjunto exato limitado)
+    private boolean dedupeIndexEnabled = true;
+    private long dedupeExpectedKeys = 2000000;
+    private double dedupeFalsePositiveRate = 0.01;
+    private int dedupeExactKeys = 200000;
+
+    public String getParserEngine() {
+        return parserEngine;
+    }
+
+    public void setParserEngine(String parserEngine) {
+        this.parserEngine = parserEngine;
+    }
+
+    public boolean isPipelineEnabled() {
+        return pipelineEnabled;
+    }
+
+    public void setPipelineEnabled(boolean pipelineEnabled) {
+        this.pipelineEnabled = pipelineEnabled;
+    }
+
+    public int getFetchWorkers() {
+        return fetchWorkers;
+    }
+
+    public void setFetchWorkers(int fetchWorkers) {
+        this.fetchWorkers = fetchWorkers;
+    }
+
+    public int getParseWorkers() {
+        return parseWorkers;
+    }
+
+    public void setParseWorkers(int parseWorkers) {
+        this.parseWorkers = parseWorkers;
+    }
+
+    public int getPersistWorkers() {
+        return persistWorkers;
+    }
+
+    public void setPersistWorkers(int persistWorkers) {
+        this.persistWorkers = persistWorkers;
+    }
+
+    public int getMoveWorkers() {
+        return moveWorkers;
+    }
+
+    public void setMoveWorkers(int moveWorkers) {
+        this.moveWorkers = moveWorkers;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getPersistBatchSize() {
+        return persistBatchSize;
+    }
+
+    public void setPersistBatchSize(int persistBatchSize) {
+        this.persistBatchSize = persistBatchSize;
+    }
+
+    public boolean isDedupeIndexEnabled() {
+        return dedupeIndexEnabled;
+    }
+
+    public void setDedupeIndexEnabled(boolean dedupeIndexEnabled) {
+        this.dedupeIndexEnabled = dedupeIndexEnabled;
+    }
+
+    public long getDedupeExpectedKeys() {
+        return dedupeExpectedKeys;
+    }
+
+    public void setDedupeExpectedKeys(long dedupeExpectedKeys) {
+        this.dedupeExpectedKeys = dedupeExpectedKeys;
+    }
+
+    public double getDedupeFalsePositiveRate() {
+        return dedupeFalsePositiveRate;
+    }
+
+    public void setDedupeFalsePositiveRate(double dedupeFalsePositiveRate) {
+        this.dedupeFalsePositiveRate = dedupeFalsePositiveRate;
+    }
+
+    public int getDedupeExactKeys() {
+        return dedupeExactKeys;
+    }
+
+    public void setDedupeExactKeys(int dedupeExactKeys) {
+        this.dedupeExactKeys = dedupeExactKeys;
+    }
+
+    public String getPersistMode() {
+        return persistMode;
+    }
+
+    public void setPersistMode(String persistMode) {
+        this.persistMode = persistMode;
+    }
+
+    public boolean isMergePersistMode() {
+        return PERSIST_MODE_MERGE.equalsIgnoreCase(persistMode);
+    }
+
+    public int getCommitChunkSize() {
+        return commitChunkSize;
+    }
+
+    public void setCommitChunkSize(int commitChunkSize) {
+        this.commitChunkSize = commitChunkSize;
+    }
+
+    public boolean isAdaptiveScheduling() {
+        return adaptiveScheduling;
+    }
+
+    public void setAdaptiveScheduling(boolean adaptiveScheduling) {
+        this.adaptiveScheduling = adaptiveScheduling;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public long getSchedulerMinDelay() {
+        return schedulerMinDelay;
+    }
+
+    public void setSchedulerMinDelay(long schedulerMinDelay) {
+        this.schedulerMinDelay = schedulerMinDelay;
+    }
+
+    public long getSchedulerMaxDelay() {
+        return schedulerMaxDelay;
+    }
+
+    public void setSchedulerMaxDelay(long schedulerMaxDelay) {
+        this.schedulerMaxDelay = schedulerMaxDelay;
+    }
+
+    public double getSchedulerBackoffMultiplier() {
+        return schedulerBackoffMultiplier;
+    }
+
+    public void setSchedulerBackoffMultiplier(double schedulerBackoffMultiplier) {
+        this.schedulerBackoffMultiplier = schedulerBackoffMultiplier;
+    }
+
+    public int getCycleMaxFiles() {
+        return cycleMaxFiles;
+    }
+
+    public void setCycleMaxFiles(int cycleMaxFiles) {
+        this.cycleMaxFiles = cycleMaxFiles;
+    }
+
+    public long getCycleMaxDuration() {
+        return cycleMaxDuration;
+    }
+
+    public void setCycleMaxDuration(long cycleMaxDuration) {
+        this.cycleMaxDuration = cycleMaxDuration;
+    }
+
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+    public int getMaxFtpSessions() {
+        return maxFtpSessions;
+    }
+
+    public void setMaxFtpSessions(int maxFtpSessions) {
+        this.maxFtpSessions = maxFtpSessions;
+    }
+
+    public int getMaxDbConnections() {
+        return maxDbConnections;
+    }
+
+    public void setMaxDbConnections(int maxDbConnections) {
+        this.maxDbConnections = maxDbConnections;
+    }
+
+    public int getMaxInFlightFiles() {
+        return maxInFlightFiles;
+    }
+
+    public void setMaxInFlightFiles(int maxInFlightFiles) {
+        this.maxInFlightFiles = maxInFlightFiles;
+    }
+
+    public long getReadinessCheckInterval() {
+        return readinessCheckInterval;
+    }
+
+    public void setReadinessCheckInterval(long readinessCheckInterval) {
+        this.readinessCheckInterval = readinessCheckInterval;
+    }
+
+    public int getDbRetryCount() {
+        return dbRetryCount;
+    }
+
+    public void setDbRetryCount(int dbRetryCount) {
+        this.dbRetryCount = dbRetryCount;
+    }
+
+    public long getDbRetryDelay() {
+        return dbRetryDelay;
+    }
+
+    public void setDbRetryDelay(long dbRetryDelay) {
+        this.dbRetryDelay = dbRetryDelay;
+    }
+
+    public int getDbCircuitFailureThreshold() {
+        return dbCircuitFailureThreshold;
+    }
+
+    public void setDbCircuitFailureThreshold(int dbCircuitFailureThreshold) {
+        this.dbCircuitFailureThreshold = dbCircuitFailureThreshold;
+    }
+
+    public long getDbCircuitOpenDuration() {
+        return dbCircuitOpenDuration;
+    }
+
+    public void setDbCircuitOpenDuration(long dbCircuitOpenDuration) {
+        this.dbCircuitOpenDuration = dbCircuitOpenDuration;
+    }
+
+    public long getDbCircuitProbeTimeout() {
+        return dbCircuitProbeTimeout;
+    }
+
+    public void setDbCircuitProbeTimeout(long dbCircuitProbeTimeout) {
+        this.dbCircuitProbeTimeout = dbCircuitProbeTimeout;
+    }
+}
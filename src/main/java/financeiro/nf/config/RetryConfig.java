@@ -0,0 +1,73 @@
+package financeiro.nf.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "file.retry")
+public class RetryConfig {
+    // Registro das falhas na tabela NF_XML_RETRY: só erros definitivos (parse, duplicidade,
+    // integridade) vão para a pasta de erro, os demais ficam na origem com nova tentativa agendada
+    private boolean enabled = false;
+
+    // Falhas de um mesmo arquivo até ele ir para a pasta de erro
+    private int maxAttempts = 8;
+
+    // Espera após a primeira falha (ms), dobrada a cada falha até max-delay
+    private long baseDelay = 60000;
+    private long maxDelay = 3600000;
+
+    // Arquivos com falha anterior que voltam em cada ciclo (0 = sem limite); os demais esperam o próximo
+    private int maxPerCycle = 100;
+
+    // Registros sem falha nova há mais que isso (s) são apagados (arquivos removidos da origem por fora)
+    private long expiredRetention = 604800;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxPerCycle() {
+        return maxPerCycle;
+    }
+
+    public void setMaxPerCycle(int maxPerCycle) {
+        this.maxPerCycle = maxPerCycle;
+    }
+
+    public long getExpiredRetention() {
+        return expiredRetention;
+    }
+
+    public void setExpiredRetention(long expiredRetention) {
+        this.expiredRetention = expiredRetention;
+    }
+}
@@ -0,0 +1,52 @@
+package financeiro.nf.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "file.spool")
+public class SpoolConfig {
+    // Baixa cada arquivo para o disco local antes do parse, liberando a sessão FTP ao fim da transferência
+    private boolean enabled = false;
+
+    // Pasta do spool (vazio = <java.io.tmpdir>/nf-spool); esvaziada na subida
+    private String directory;
+
+    // Espaço máximo ocupado pelos arquivos baixados e ainda não lidos; o download espera quando cheio
+    private long maxBytes = 536870912;
+
+    // Tentativas de uma transferência, retomando do ponto em que parou (REST) a cada nova sessão
+    private int transferAttempts = 3;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public int getTransferAttempts() {
+        return transferAttempts;
+    }
+
+    public void setTransferAttempts(int transferAttempts) {
+        this.transferAttempts = transferAttempts;
+    }
+}
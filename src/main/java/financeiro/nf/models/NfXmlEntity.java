@@ -9,8 +9,11 @@ import java.util.Objects;
 @Entity
 @Table(name = "NF_NFITEM_NFANEXO_XMLFS", schema = "WEBSERVICE")
 public class NfXmlEntity {
+    // Sequência com otimizador pooled: um NEXTVAL reserva allocationSize IDs e mantém o batch JDBC ativo
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "nfXmlSequence")
+    @SequenceGenerator(name = "nfXmlSequence", sequenceName = "NF_NFITEM_NFANEXO_XMLFS_SEQ",
+            schema = "WEBSERVICE", allocationSize = 50)
     @Column(name = "NR_SEQUENCIA")
     private Long nrSequencia;
 
@@ -1,10 +1,24 @@
 package financeiro.nf.repositories;
 
 import financeiro.nf.models.NfXmlEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.util.stream.Stream;
+
 @Repository
 public interface NfXmlRepository extends JpaRepository<NfXmlEntity, Long> {
     boolean existsByNrNotaFiscalAndCdSerieNf(String nrNotaFiscal, String cdSerieNf);
+
+    // Chaves de duplicidade em streaming (exige transação aberta e fechamento do Stream)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "5000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select n.nrNotaFiscal, n.cdSerieNf from NfXmlEntity n")
+    Stream<Object[]> streamAllKeys();
 }
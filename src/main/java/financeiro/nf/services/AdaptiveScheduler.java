@@ -0,0 +1,99 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Agenda os ciclos do {@link NfeProcessingService} conforme o backlog, no lugar do
+ * {@code fixedDelay} fixo: enquanto sobrarem arquivos prontos além do orçamento do ciclo o próximo
+ * começa na hora; depois de um ciclo com arquivos o intervalo volta ao mínimo; a cada ciclo vazio
+ * ele é multiplicado até o teto. Arquivos que passaram pelo ciclo e ficaram na origem (falha ou
+ * move que não aconteceu) não antecipam o próximo: senão um arquivo preso seria baixado e
+ * gravado de novo sem pausa. Com {@code file.processing.adaptive-scheduling=false} usa sempre
+ * {@code file.processing.delay}.
+ * <p>
+ * O primeiro ciclo só é agendado depois que o {@link ReadinessService} confirma FTP e banco.
+ */
+@Component
+@Slf4j
+public class AdaptiveScheduler {
+
+    private final NfeProcessingService nfeProcessingService;
+    private final ProcessingConfig processingConfig;
+    private final TaskScheduler taskScheduler;
+    private final ReadinessService readinessService;
+
+    private volatile long currentDelay;
+    private volatile int backlog;
+    private volatile int deferred;
+
+    public AdaptiveScheduler(NfeProcessingService nfeProcessingService, ProcessingConfig processingConfig,
+                             TaskScheduler taskScheduler, ReadinessService readinessService) {
+        this.nfeProcessingService = nfeProcessingService;
+        this.processingConfig = processingConfig;
+        this.taskScheduler = taskScheduler;
+        this.readinessService = readinessService;
+        this.currentDelay = processingConfig.getSchedulerMinDelay();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        readinessService.onReady(() -> scheduleNext(processingConfig.getInitialDelay()));
+    }
+
+    void runCycle() {
+        NfeProcessingService.CycleResult result = NfeProcessingService.CycleResult.EMPTY;
+        try {
+            result = nfeProcessingService.processXmlFiles();
+        } catch (RuntimeException e) {
+            log.error("💥 Erro inesperado no ciclo de processamento", e);
+        } finally {
+            // Também após um Error (ex.: OutOfMemoryError), senão nenhum ciclo seria agendado de novo
+            backlog = result.remaining() + result.unsettled();
+            deferred = result.deferred();
+            currentDelay = nextDelay(result);
+            log.info("⏱️ Próximo ciclo em {} ms (backlog: {}, aguardando upload: {})", currentDelay, backlog, deferred);
+            scheduleNext(currentDelay);
+        }
+    }
+
+    long nextDelay(NfeProcessingService.CycleResult result) {
+        if (!processingConfig.isAdaptiveScheduling()) {
+            return processingConfig.getDelay();
+        }
+        long min = processingConfig.getSchedulerMinDelay();
+        long max = Math.max(min, processingConfig.getSchedulerMaxDelay());
+
+        if (result.remaining() > 0) {
+            return 0;
+        }
+        if (result.settled() > 0) {
+            return min;
+        }
+        // Ciclo vazio (ou com falha): recua exponencialmente até o teto
+        long backedOff = (long) (currentDelay * Math.max(1.0, processingConfig.getSchedulerBackoffMultiplier()));
+        return Math.min(max, Math.max(min, backedOff));
+    }
+
+    private void scheduleNext(long delay) {
+        taskScheduler.schedule(this::runCycle, Instant.now().plusMillis(delay));
+    }
+
+    public long getCurrentDelay() {
+        return currentDelay;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public int getDeferred() {
+        return deferred;
+    }
+}
@@ -0,0 +1,147 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Destino dos arquivos concluídos no FTP: {@code processed/} e {@code error/} particionados por
+ * data ({@code ftp.archive-partition-pattern}, ex. {@code yyyy/MM/dd}), para nenhuma pasta
+ * acumular centenas de milhares de entradas.
+ * As pastas são criadas sob demanda e lembradas, de modo que cada uma custa um MKD por processo.
+ */
+@Component
+@Slf4j
+public class ArchiveLayout {
+
+    private static final int MAX_CACHED_DIRECTORIES = 1000;
+
+    private final FtpConfig ftpConfig;
+    private final ProcessingMetrics metrics;
+    private final ResilienceService resilience;
+    private final Clock clock;
+    private final Set<String> knownDirectories = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ArchiveLayout(FtpConfig ftpConfig, ProcessingMetrics metrics, ResilienceService resilience) {
+        this(ftpConfig, metrics, resilience, Clock.systemDefaultZone());
+    }
+
+    ArchiveLayout(FtpConfig ftpConfig, ProcessingMetrics metrics, ResilienceService resilience, Clock clock) {
+        this.ftpConfig = ftpConfig;
+        this.metrics = metrics;
+        this.resilience = resilience;
+        this.clock = clock;
+    }
+
+    public String moveToProcessed(FtpSession session, String sourceDir, String filename) throws IOException {
+        return move(session, sourceDir, filename, processedRoot(sourceDir), "processed");
+    }
+
+    public String moveToError(FtpSession session, String sourceDir, String filename) throws IOException {
+        return move(session, sourceDir, filename, errorRoot(sourceDir), "error");
+    }
+
+    String partitionDirectory(String root) {
+        String pattern = ftpConfig.getArchivePartitionPattern();
+        if (pattern == null || pattern.isBlank()) {
+            return root;
+        }
+        return root + "/" + LocalDate.now(clock).format(DateTimeFormatter.ofPattern(pattern));
+    }
+
+    private String move(FtpSession session, String sourceDir, String filename, String root, String target)
+            throws IOException {
+        Timer.Sample sample = metrics.start();
+        try {
+            return archive(session, sourceDir, filename, root);
+        } finally {
+            sample.stop(metrics.ftpMove(target));
+        }
+    }
+
+    private String archive(FtpSession session, String sourceDir, String filename, String root) throws IOException {
+        String directory = partitionDirectory(root);
+        String sourcePath = sourceDir + "/" + filename;
+        String targetPath = directory + "/" + filename;
+
+        ensureDirectory(session, directory);
+        try {
+            rename(session, sourcePath, targetPath);
+        } catch (FtpService.FtpReplyException e) {
+            // A pasta pode ter sido removida no servidor depois de entrar no cache: recria e tenta de novo
+            if (e.isTransient() || !forget(directory)) {
+                throw e;
+            }
+            ensureDirectory(session, directory);
+            rename(session, sourcePath, targetPath);
+        }
+        return targetPath;
+    }
+
+    /**
+     * Respostas 4xx (arquivo ocupado, servidor sobrecarregado) são repetidas na mesma sessão.
+     */
+    private void rename(FtpSession session, String sourcePath, String targetPath) throws IOException {
+        resilience.callFtp("rename de " + sourcePath, session, () -> {
+            session.rename(sourcePath, targetPath);
+            return null;
+        });
+    }
+
+    /**
+     * Cria cada nível que ainda não está no cache. MKD em pasta existente só devolve 550,
+     * então não há LIST/CWD prévio.
+     */
+    private void ensureDirectory(FtpSession session, String directory) throws IOException {
+        if (knownDirectories.contains(directory)) {
+            return;
+        }
+        if (knownDirectories.size() > MAX_CACHED_DIRECTORIES) {
+            knownDirectories.clear();
+        }
+
+        int start = directory.startsWith("/") ? 1 : 0;
+        int slash;
+        do {
+            slash = directory.indexOf('/', start);
+            String level = slash < 0 ? directory : directory.substring(0, slash);
+            if (!knownDirectories.contains(level)) {
+                if (session.makeDirectory(level)) {
+                    log.info("📁 Pasta de arquivamento criada: {}", level);
+                }
+                knownDirectories.add(level);
+            }
+            start = slash + 1;
+        } while (slash >= 0);
+    }
+
+    private boolean forget(String directory) {
+        boolean removed = false;
+        String level = directory;
+        while (!level.isEmpty()) {
+            removed |= knownDirectories.remove(level);
+            level = level.substring(0, Math.max(0, level.lastIndexOf('/')));
+        }
+        return removed;
+    }
+
+    private String processedRoot(String sourceDir) {
+        String configured = ftpConfig.getProcessedDir();
+        return configured == null || configured.isBlank() ? sourceDir + "/processed" : configured;
+    }
+
+    private String errorRoot(String sourceDir) {
+        String configured = ftpConfig.getErrorDir();
+        return configured == null || configured.isBlank() ? sourceDir + "/error" : configured;
+    }
+}
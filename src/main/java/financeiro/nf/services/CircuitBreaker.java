@@ -0,0 +1,115 @@
+package financeiro.nf.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+
+/**
+ * Circuito de uma dependência externa (FTP ou banco). Depois de {@code failureThreshold} falhas
+ * transitórias seguidas ele abre e recusa as chamadas na hora durante {@code openDuration} ms, em
+ * vez de cada thread esperar o seu timeout de conexão. Passado esse tempo, uma única chamada de
+ * teste é liberada (meio-aberto): se der certo o circuito fecha, se falhar abre de novo. Uma chamada
+ * de teste que termina sem resultado ({@link #release}) ou passa de {@code probeTimeout} ms libera
+ * a próxima.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDuration;
+    private final long probeTimeout;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt;
+    private boolean probeInFlight = false;
+    private long probeStartedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openDuration, long probeTimeout, Clock clock) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+        this.probeTimeout = probeTimeout;
+        this.clock = clock;
+    }
+
+    /**
+     * Reserva uma chamada: falso enquanto o circuito está aberto ou a chamada de teste não terminou.
+     * Toda chamada reservada precisa terminar em {@link #recordSuccess}, {@link #recordFailure}
+     * ou {@link #release}.
+     */
+    public synchronized boolean tryAcquire() {
+        long now = clock.millis();
+        if (state == State.OPEN && now - openedAt >= openDuration) {
+            state = State.HALF_OPEN;
+            log.info("⚡ Circuito {} meio-aberto, liberando uma chamada de teste", name);
+            return startProbe(now);
+        }
+        if (state == State.HALF_OPEN && (!probeInFlight || now - probeStartedAt >= probeTimeout)) {
+            if (probeInFlight) {
+                log.warn("⚡ Chamada de teste do circuito {} sem resposta há {} ms, liberando outra", name,
+                        now - probeStartedAt);
+            }
+            return startProbe(now);
+        }
+        return state == State.CLOSED;
+    }
+
+    /**
+     * A dependência respondeu (mesmo que com um erro definitivo, como um arquivo inexistente).
+     */
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            log.info("✅ Circuito {} fechado", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        probeInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = clock.millis();
+            log.warn("⚡ Circuito {} aberto após {} falhas seguidas, chamadas recusadas por {} ms",
+                    name, consecutiveFailures, openDuration);
+        }
+    }
+
+    /**
+     * A chamada terminou sem dizer nada sobre a dependência (ex.: pool de sessões esgotado, erro
+     * inesperado): o estado não muda, mas uma chamada de teste pendente deixa de bloquear a próxima.
+     */
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Verdadeiro enquanto as chamadas estão sendo recusadas.
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && clock.millis() - openedAt < openDuration;
+    }
+
+    private boolean startProbe(long now) {
+        probeInFlight = true;
+        probeStartedAt = now;
+        return true;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,79 @@
+package financeiro.nf.services;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Conta os commits de gravação de notas em uma janela deslizante de uma hora (60 buckets de
+ * um minuto), para calibrar {@code file.processing.commit-chunk-size}.
+ */
+@Component
+public class CommitRateTracker {
+
+    private static final int BUCKETS = 60;
+    private static final long BUCKET_MILLIS = 60_000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bucketMinutes = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCommits = new AtomicLong();
+    private final LongSupplier clock;
+
+    public CommitRateTracker() {
+        this(System::currentTimeMillis);
+    }
+
+    CommitRateTracker(LongSupplier clock) {
+        this.clock = clock;
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketMinutes.set(i, -1);
+        }
+    }
+
+    public void recordCommit() {
+        long minute = clock.getAsLong() / BUCKET_MILLIS;
+        int bucket = (int) (minute % BUCKETS);
+        long current = bucketMinutes.get(bucket);
+        // Bucket de uma hora atrás: o primeiro a chegar zera e assume o minuto atual
+        if (current != minute && bucketMinutes.compareAndSet(bucket, current, minute)) {
+            counts.set(bucket, 0);
+        }
+        counts.incrementAndGet(bucket);
+        totalCommits.incrementAndGet();
+    }
+
+    /**
+     * Conta o commit da transação corrente quando ela for efetivada (ou já, se não houver transação).
+     */
+    public void recordOnCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recordCommit();
+                }
+            });
+        } else {
+            recordCommit();
+        }
+    }
+
+    public long getCommitsLastHour() {
+        long minute = clock.getAsLong() / BUCKET_MILLIS;
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (minute - bucketMinutes.get(i) < BUCKETS) {
+                sum += counts.get(i);
+            }
+        }
+        return sum;
+    }
+
+    public long getTotalCommits() {
+        return totalCommits.get();
+    }
+}
@@ -0,0 +1,242 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ClusterConfig;
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.repositories.NfXmlRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Índice em memória das chaves (NR_NOTA_FISCAL, CD_SERIE_NF) já gravadas, consultado antes do
+ * {@code existsByNrNotaFiscalAndCdSerieNf}:
+ * <ul>
+ *     <li>conjunto exato (limitado) das chaves gravadas ou confirmadas por este processo → duplicada, sem banco;</li>
+ *     <li>filtro de Bloom com todas as chaves da tabela → se ausente, a nota é nova, sem banco;</li>
+ *     <li>somente os possíveis positivos do Bloom vão ao banco.</li>
+ * </ul>
+ * O Bloom é aquecido na subida com uma consulta em streaming; até lá todas as consultas vão ao banco.
+ * Com {@code cluster.claim-enabled} outros nós gravam na mesma tabela sem passar por este Bloom, então
+ * a ausência nele não prova nada: ele não é carregado e só o conjunto exato responde sem banco.
+ */
+@Component
+@Slf4j
+public class DuplicateKeyIndex {
+
+    private final NfXmlRepository repository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ProcessingConfig processingConfig;
+    // Falso com vários nós gravando na tabela: a ausência no Bloom não prova que a nota é nova
+    private final boolean trustBloomNegatives;
+
+    private final AtomicLongArray bloomBits;
+    private final long bloomSize;
+    private final int hashFunctions;
+    private final Set<String> exactKeys;
+
+    private volatile boolean ready = false;
+    private final AtomicLong dbLookups = new AtomicLong();
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    public DuplicateKeyIndex(NfXmlRepository repository, PlatformTransactionManager transactionManager,
+                             ProcessingConfig processingConfig, ClusterConfig clusterConfig) {
+        this.repository = repository;
+        this.processingConfig = processingConfig;
+        this.trustBloomNegatives = !clusterConfig.isClaimEnabled();
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+
+        // Dimensionamento clássico: m = -n·ln(p) / ln(2)², k = m/n · ln(2)
+        long expected = Math.max(1000, processingConfig.getDedupeExpectedKeys());
+        double fpp = processingConfig.getDedupeFalsePositiveRate();
+        long bits = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bloomBits = new AtomicLongArray((int) ((bits + 63) / 64));
+        this.bloomSize = bloomBits.length() * 64L;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bloomSize / expected * Math.log(2)));
+
+        int maxExactKeys = Math.max(1, processingConfig.getDedupeExactKeys());
+        this.exactKeys = Collections.newSetFromMap(Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return size() > maxExactKeys;
+                    }
+                }));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpAsync() {
+        if (!processingConfig.isDedupeIndexEnabled()) {
+            log.info("🔎 Índice de duplicidade desabilitado: todas as verificações vão ao banco");
+            return;
+        }
+        if (!trustBloomNegatives) {
+            ready = true;
+            log.info("🔎 Índice de duplicidade sem Bloom (vários nós gravam na tabela): só chaves confirmadas "
+                    + "por este nó dispensam o banco");
+            return;
+        }
+        Thread warmUp = new Thread(this::warmUp, "nf-dedupe-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    void warmUp() {
+        long start = System.currentTimeMillis();
+        try {
+            long loaded = readOnlyTransaction.execute(status -> {
+                long count = 0;
+                try (Stream<Object[]> keys = repository.streamAllKeys()) {
+                    for (Object[] key : (Iterable<Object[]>) keys::iterator) {
+                        addToBloom(key((String) key[0], (String) key[1]));
+                        count++;
+                    }
+                }
+                return count;
+            });
+            ready = true;
+            log.info("🔎 Índice de duplicidade carregado: {} chaves em {} ms (Bloom de {} bits, k={})",
+                    loaded, System.currentTimeMillis() - start, bloomSize, hashFunctions);
+            if (loaded > processingConfig.getDedupeExpectedKeys()) {
+                log.warn("⚠️ Tabela com mais chaves ({}) que o previsto para o Bloom ({}); aumente "
+                        + "file.processing.dedupe-expected-keys", loaded, processingConfig.getDedupeExpectedKeys());
+            }
+        } catch (Exception e) {
+            log.error("❌ Falha ao carregar o índice de duplicidade, verificações seguem no banco", e);
+        }
+    }
+
+    /**
+     * @param databaseCheck consulta ao banco, usada apenas quando o índice não pode responder sozinho
+     */
+    public boolean isDuplicate(String nrNotaFiscal, String cdSerieNf, BooleanSupplier databaseCheck) {
+        String key = key(nrNotaFiscal, cdSerieNf);
+
+        if (ready) {
+            if (exactKeys.contains(key)) {
+                memoryHits.incrementAndGet();
+                return true;
+            }
+            if (trustBloomNegatives && !mightContain(key)) {
+                memoryHits.incrementAndGet();
+                return false;
+            }
+        }
+
+        dbLookups.incrementAndGet();
+        boolean exists = databaseCheck.getAsBoolean();
+        if (exists) {
+            addToBloom(key);
+            exactKeys.add(key);
+        }
+        return exists;
+    }
+
+    /**
+     * Consulta apenas o conjunto exato: usada pelo MERGE, que resolve os demais casos no próprio comando.
+     */
+    public boolean isKnownDuplicate(String nrNotaFiscal, String cdSerieNf) {
+        if (ready && exactKeys.contains(key(nrNotaFiscal, cdSerieNf))) {
+            memoryHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registra a chave de uma nota gravada. Dentro de uma transação, o conjunto exato só é
+     * atualizado após o commit, para um rollback não marcar como duplicada uma nota que não existe.
+     */
+    public void register(String nrNotaFiscal, String cdSerieNf) {
+        String key = key(nrNotaFiscal, cdSerieNf);
+        addToBloom(key);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    exactKeys.add(key);
+                }
+            });
+        } else {
+            exactKeys.add(key);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long getDbLookups() {
+        return dbLookups.get();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    private static String key(String nrNotaFiscal, String cdSerieNf) {
+        return nrNotaFiscal + '\u0000' + cdSerieNf;
+    }
+
+    private void addToBloom(String key) {
+        long hash = hash64(key);
+        long h1 = hash;
+        long h2 = mix64(hash);
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bloomSize);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << (bit & 63);
+            long current;
+            do {
+                current = bloomBits.get(word);
+                if ((current & mask) != 0) break;
+            } while (!bloomBits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    private boolean mightContain(String key) {
+        long hash = hash64(key);
+        long h1 = hash;
+        long h2 = mix64(hash);
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bloomSize);
+            if ((bloomBits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a de 64 bits
+    private static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Finalizador do SplitMix64, usado como segundo hash do double hashing
+    private static long mix64(long value) {
+        long z = value + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return (z ^ (z >>> 31)) | 1L;
+    }
+}
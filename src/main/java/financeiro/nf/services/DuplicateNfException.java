@@ -0,0 +1,13 @@
+package financeiro.nf.services;
+
+import java.io.IOException;
+
+/**
+ * A nota (número + série) já está gravada: o arquivo vai para a pasta de erro sem nova tentativa.
+ */
+public class DuplicateNfException extends IOException {
+
+    public DuplicateNfException(String nrNotaFiscal, String cdSerieNf) {
+        super("Nota fiscal já processada: " + nrNotaFiscal + " Série: " + cdSerieNf);
+    }
+}
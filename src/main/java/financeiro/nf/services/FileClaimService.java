@@ -0,0 +1,241 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ClusterConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reserva de arquivos na tabela {@code WEBSERVICE.NF_XML_CLAIM}, para que vários nós listem a
+ * mesma pasta FTP sem processar o mesmo XML.
+ * <p>
+ * A reserva é um MERGE condicional: insere a linha do arquivo ou, se ela já existe, só a assume
+ * quando a reserva anterior venceu (ou já é deste nó). A contagem de linhas diz quem ficou com o
+ * arquivo; dois nós inserindo ao mesmo tempo esbarram na chave primária e só um vence.
+ * <p>
+ * A validade é calculada com o relógio do banco ({@code SYSTIMESTAMP}), então relógios diferentes
+ * entre os nós não importam. Um heartbeat renova as reservas do nó enquanto ele está vivo; se o
+ * nó cair, as reservas vencem em {@code cluster.lease-duration} segundos e os arquivos voltam a
+ * ser reservados pelos outros nós.
+ * <p>
+ * Arquivos que ficaram na origem têm a reserva liberada ao fim do ciclo. Os arquivados ficam com
+ * a reserva marcada como concluída ({@code DT_CONCLUSAO}), que o heartbeat não renova: até ela
+ * vencer, um nó com uma listagem anterior ao arquivamento não consegue reservá-los.
+ */
+@Service
+@Slf4j
+public class FileClaimService {
+
+    static final String CLAIM_SQL = "MERGE INTO WEBSERVICE.NF_XML_CLAIM c"
+            + " USING (SELECT CAST(? AS VARCHAR2(1000)) AS DS_ARQUIVO FROM DUAL) s"
+            + " ON (c.DS_ARQUIVO = s.DS_ARQUIVO)"
+            + " WHEN MATCHED THEN UPDATE SET c.NM_NODE = ?, c.DT_CLAIM = SYSTIMESTAMP,"
+            + " c.DT_LEASE_EXPIRA = SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND'), c.DT_CONCLUSAO = NULL"
+            + " WHERE c.DT_LEASE_EXPIRA < SYSTIMESTAMP OR c.NM_NODE = ?"
+            + " WHEN NOT MATCHED THEN INSERT (DS_ARQUIVO, NM_NODE, DT_CLAIM, DT_LEASE_EXPIRA)"
+            + " VALUES (s.DS_ARQUIVO, ?, SYSTIMESTAMP, SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND'))";
+
+    static final String RELEASE_SQL = "DELETE FROM WEBSERVICE.NF_XML_CLAIM WHERE DS_ARQUIVO = ? AND NM_NODE = ?";
+
+    static final String COMPLETE_SQL = "UPDATE WEBSERVICE.NF_XML_CLAIM SET DT_CONCLUSAO = SYSTIMESTAMP,"
+            + " DT_LEASE_EXPIRA = SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND') WHERE DS_ARQUIVO = ? AND NM_NODE = ?";
+
+    static final String RENEW_SQL = "UPDATE WEBSERVICE.NF_XML_CLAIM"
+            + " SET DT_LEASE_EXPIRA = SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND')"
+            + " WHERE NM_NODE = ? AND DT_CONCLUSAO IS NULL";
+
+    static final String PURGE_SQL = "DELETE FROM WEBSERVICE.NF_XML_CLAIM"
+            + " WHERE DT_LEASE_EXPIRA < SYSTIMESTAMP - NUMTODSINTERVAL(?, 'SECOND')";
+
+    private static final int BATCH_SIZE = 100;
+
+    private final ClusterConfig clusterConfig;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String nodeId;
+
+    private ScheduledExecutorService heartbeat;
+
+    public FileClaimService(ClusterConfig clusterConfig, JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate) {
+        this.clusterConfig = clusterConfig;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        String configured = clusterConfig.getNodeId();
+        this.nodeId = configured == null || configured.isBlank()
+                ? ManagementFactory.getRuntimeMXBean().getName()
+                : configured;
+    }
+
+    public boolean isEnabled() {
+        return clusterConfig.isClaimEnabled();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Reserva os arquivos para este nó.
+     *
+     * @return os arquivos reservados, na ordem recebida; os demais estão com outro nó
+     */
+    public List<String> claim(String directory, List<String> filenames) {
+        if (filenames.isEmpty()) {
+            return List.of();
+        }
+        List<int[]> counts;
+        try {
+            counts = transactionTemplate.execute(status -> List.of(jdbcTemplate.batchUpdate(CLAIM_SQL, filenames,
+                    BATCH_SIZE, (ps, filename) -> bindClaim(ps, key(directory, filename)))));
+        } catch (DataAccessException e) {
+            // Um insert concorrente de outro nó desfaz o lote inteiro: reserva um a um
+            log.debug("Reserva em lote falhou, tentando arquivo a arquivo: {}", e.getMessage());
+            return claimOneByOne(directory, filenames);
+        }
+
+        List<String> claimed = new ArrayList<>(filenames.size());
+        int index = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                if (count == Statement.SUCCESS_NO_INFO) {
+                    return claimOneByOne(directory, filenames);
+                }
+                if (count > 0) {
+                    claimed.add(filenames.get(index));
+                }
+                index++;
+            }
+        }
+        log.info("🔒 {} de {} arquivos reservados pelo nó {}", claimed.size(), filenames.size(), nodeId);
+        return claimed;
+    }
+
+    /**
+     * Libera as reservas deste nó para arquivos que ficaram na origem: qualquer nó pode reservá-los
+     * na próxima listagem.
+     */
+    public void release(String directory, Collection<String> filenames) {
+        if (filenames.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(RELEASE_SQL, filenames,
+                    BATCH_SIZE, (ps, filename) -> {
+                        ps.setString(1, key(directory, filename));
+                        ps.setString(2, nodeId);
+                    }));
+        } catch (DataAccessException e) {
+            // As reservas vencem sozinhas ao fim do lease
+            log.warn("⚠️ Não foi possível liberar {} reservas, elas vencem em {}s", filenames.size(),
+                    clusterConfig.getLeaseDuration(), e);
+        }
+    }
+
+    /**
+     * Marca como concluídas as reservas de arquivos que já saíram da origem. A reserva não é
+     * apagada: um nó que listou a pasta antes do arquivamento receberia 550 ao baixar o arquivo.
+     * Ela deixa de ser renovada e vence em {@code cluster.lease-duration} segundos.
+     */
+    public void complete(String directory, Collection<String> filenames) {
+        if (filenames.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(COMPLETE_SQL, filenames,
+                    BATCH_SIZE, (ps, filename) -> {
+                        ps.setLong(1, clusterConfig.getLeaseDuration());
+                        ps.setString(2, key(directory, filename));
+                        ps.setString(3, nodeId);
+                    }));
+        } catch (DataAccessException e) {
+            // Continuam renovadas pelo heartbeat até o nó parar; a limpeza de vencidas as remove depois
+            log.warn("⚠️ Não foi possível concluir {} reservas", filenames.size(), e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startHeartbeat() {
+        if (!isEnabled()) {
+            return;
+        }
+        // Thread própria: o TaskScheduler do Spring fica ocupado pelo ciclo de processamento
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nf-claim-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000, clusterConfig.getHeartbeatInterval());
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("💓 Reservas de arquivos ativas no nó {} (lease {}s, heartbeat {}ms)", nodeId,
+                clusterConfig.getLeaseDuration(), interval);
+    }
+
+    @PreDestroy
+    public void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    void heartbeat() {
+        try {
+            Integer renewed = transactionTemplate.execute(status ->
+                    jdbcTemplate.update(RENEW_SQL, clusterConfig.getLeaseDuration(), nodeId));
+            // Reservas de nós que caíram depois de arquivar o arquivo nunca são liberadas
+            Integer purged = transactionTemplate.execute(status ->
+                    jdbcTemplate.update(PURGE_SQL, clusterConfig.getExpiredRetention()));
+            log.debug("💓 {} reservas renovadas, {} vencidas removidas", renewed, purged);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Falha no heartbeat das reservas do nó {}", nodeId, e);
+        }
+    }
+
+    private List<String> claimOneByOne(String directory, List<String> filenames) {
+        List<String> claimed = new ArrayList<>();
+        for (String filename : filenames) {
+            try {
+                Integer count = transactionTemplate.execute(status ->
+                        jdbcTemplate.update(CLAIM_SQL, ps -> bindClaim(ps, key(directory, filename))));
+                if (count != null && count > 0) {
+                    claimed.add(filename);
+                }
+            } catch (DuplicateKeyException e) {
+                // Outro nó inseriu a reserva primeiro
+            }
+        }
+        log.info("🔒 {} de {} arquivos reservados pelo nó {}", claimed.size(), filenames.size(), nodeId);
+        return claimed;
+    }
+
+    private void bindClaim(PreparedStatement ps, String key) throws SQLException {
+        long lease = clusterConfig.getLeaseDuration();
+        ps.setString(1, key);
+        ps.setString(2, nodeId);
+        ps.setLong(3, lease);
+        ps.setString(4, nodeId);
+        ps.setString(5, nodeId);
+        ps.setLong(6, lease);
+    }
+
+    private static String key(String directory, String filename) {
+        return directory + "/" + filename;
+    }
+}
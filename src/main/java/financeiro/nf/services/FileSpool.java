@@ -0,0 +1,268 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.SpoolConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spool local dos downloads ({@code file.spool.enabled}): o arquivo é baixado inteiro para o disco
+ * e a sessão FTP volta ao pool logo ao fim da transferência, de modo que o parse não segura
+ * conexão nem depende da latência da rede.
+ * <p>
+ * Uma transferência interrompida é retomada em outra sessão a partir do último byte gravado
+ * (REST), até {@code file.spool.transfer-attempts} tentativas, e o tamanho final é conferido
+ * com o SIZE do servidor. O espaço ocupado pelos arquivos ainda não lidos fica limitado a
+ * {@code file.spool.max-bytes}: o próximo download espera até algum arquivo ser liberado.
+ */
+@Component
+@Slf4j
+public class FileSpool {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final SpoolConfig spoolConfig;
+    private final FtpService ftpService;
+    private final ProcessingMetrics metrics;
+    private final AtomicLong sequence = new AtomicLong();
+    private Path directory;
+    private long usedBytes = 0;
+
+    public FileSpool(SpoolConfig spoolConfig, FtpService ftpService, ProcessingMetrics metrics) {
+        this.spoolConfig = spoolConfig;
+        this.ftpService = ftpService;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Cria a pasta do spool e remove o que sobrou de uma execução anterior.
+     */
+    @PostConstruct
+    public void prepare() throws IOException {
+        if (!spoolConfig.isEnabled()) {
+            return;
+        }
+        String configured = spoolConfig.getDirectory();
+        directory = configured == null || configured.isBlank()
+                ? Path.of(System.getProperty("java.io.tmpdir"), "nf-spool")
+                : Path.of(configured);
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory)) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+        log.info("💾 Spool local em {} (máx. {} bytes)", directory, spoolConfig.getMaxBytes());
+    }
+
+    public boolean isEnabled() {
+        return spoolConfig.isEnabled();
+    }
+
+    /**
+     * Bytes ocupados no spool por arquivos baixados e ainda não liberados.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Baixa {@code remotePath} para o spool usando sessões próprias do pool, retomando as
+     * transferências interrompidas.
+     *
+     * @throws IOException se o servidor recusou o arquivo, as tentativas acabaram ou o tamanho
+     *                     baixado não confere com o SIZE
+     */
+    public SpooledFile fetch(String remotePath) throws IOException, InterruptedException {
+        return fetch(remotePath, null);
+    }
+
+    /**
+     * Como {@link #fetch(String)}, para quem limita as próprias sessões FTP por semáforo: a vaga
+     * {@code sessionPermit}, já adquirida pelo chamador, é devolvida enquanto o download espera
+     * espaço no spool e readquirida antes da transferência.
+     */
+    public SpooledFile fetch(String remotePath, Semaphore sessionPermit) throws IOException, InterruptedException {
+        Path path = directory.resolve(sequence.incrementAndGet() + "-"
+                + remotePath.substring(remotePath.lastIndexOf('/') + 1));
+        long expected = -1;
+        long reserved = 0;
+        boolean held = false;
+        boolean complete = false;
+        int attempt = 1;
+
+        try {
+            // Com espaço livre, o SIZE e a primeira tentativa usam a mesma sessão
+            try (FtpSession session = ftpService.openSession()) {
+                expected = session.size(remotePath);
+                reserved = Math.max(0, expected);
+                held = tryReserve(reserved);
+                if (held) {
+                    complete = transfer(session, remotePath, path, expected, attempt++);
+                }
+            }
+            if (!held) {
+                // Spool cheio: espera o espaço sem segurar sessão FTP nem vaga do chamador
+                if (sessionPermit != null) {
+                    sessionPermit.release();
+                }
+                try {
+                    reserve(reserved);
+                    held = true;
+                } finally {
+                    if (sessionPermit != null) {
+                        // O chamador devolve a vaga ao final, mesmo se interrompido aqui
+                        sessionPermit.acquireUninterruptibly();
+                    }
+                }
+            }
+
+            int attempts = Math.max(1, spoolConfig.getTransferAttempts());
+            for (; !complete && attempt <= attempts; attempt++) {
+                try (FtpSession session = ftpService.openSession()) {
+                    complete = transfer(session, remotePath, path, expected, attempt);
+                }
+            }
+            if (!complete) {
+                throw new IOException("Download de " + remotePath + " não concluído após " + attempts + " tentativas");
+            }
+            if (expected < 0) {
+                // Sem SIZE o espaço só é conhecido depois do download
+                long actual = Files.size(path);
+                forceReserve(actual);
+                reserved = actual;
+            }
+            return new SpooledFile(this, path, null, reserved);
+
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            if (held) {
+                release(reserved);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Uma tentativa: RETR a partir do que já está no disco.
+     *
+     * @return se o arquivo está completo; falso se a conexão caiu ou o servidor encerrou a
+     * transferência antes do fim (a próxima tentativa retoma daí)
+     * @throws IOException em resposta negativa do servidor ou tamanho maior que o SIZE
+     */
+    private boolean transfer(FtpSession session, String remotePath, Path path, long expected, int attempt)
+            throws IOException {
+        long offset = Files.exists(path) ? Files.size(path) : 0;
+        if (offset > 0) {
+            metrics.ftpDownloadResumed();
+            log.warn("🔁 Retomando download de {} a partir do byte {} (tentativa {})", remotePath, offset, attempt);
+        }
+
+        try (InputStream in = session.retrieveFile(remotePath, offset);
+             OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            in.transferTo(out);
+        } catch (FtpService.FtpReplyException e) {
+            // Arquivo inexistente ou sem permissão: retomar não resolve
+            throw e;
+        } catch (IOException e) {
+            log.warn("⚠️ Download de {} interrompido na tentativa {}: {}", remotePath, attempt, e.getMessage());
+            return false;
+        }
+
+        long actual = Files.size(path);
+        if (expected < 0 || actual == expected) {
+            return true;
+        }
+        if (actual > expected) {
+            throw new IOException("Download de " + remotePath + " com " + actual
+                    + " bytes, maior que o SIZE do servidor (" + expected + ")");
+        }
+        log.warn("⚠️ Download de {} incompleto: {} de {} bytes", remotePath, actual, expected);
+        return false;
+    }
+
+    private synchronized boolean tryReserve(long bytes) {
+        // Um arquivo maior que o limite passa sozinho, senão nunca seria baixado
+        if (usedBytes > 0 && usedBytes + bytes > spoolConfig.getMaxBytes()) {
+            return false;
+        }
+        usedBytes += bytes;
+        return true;
+    }
+
+    private synchronized void reserve(long bytes) throws InterruptedException {
+        while (!tryReserve(bytes)) {
+            wait();
+        }
+    }
+
+    private synchronized void forceReserve(long bytes) {
+        usedBytes += bytes;
+    }
+
+    private synchronized void release(long bytes) {
+        if (bytes > 0) {
+            usedBytes -= bytes;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Conteúdo de um arquivo baixado, no spool ou em memória. O {@link #close()} apaga o arquivo
+     * do spool e libera o espaço reservado.
+     */
+    public static final class SpooledFile implements Closeable {
+        private final FileSpool spool;
+        private final Path path;
+        private final byte[] content;
+        private final long reserved;
+        private boolean closed = false;
+
+        private SpooledFile(FileSpool spool, Path path, byte[] content, long reserved) {
+            this.spool = spool;
+            this.path = path;
+            this.content = content;
+            this.reserved = reserved;
+        }
+
+        /**
+         * Conteúdo já lido do stream de download, sem passar pelo disco (spool desabilitado).
+         */
+        public static SpooledFile inMemory(byte[] content) {
+            return new SpooledFile(null, null, content, 0);
+        }
+
+        public InputStream open() throws IOException {
+            return path == null
+                    ? new ByteArrayInputStream(content)
+                    : new BufferedInputStream(Files.newInputStream(path), READ_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+
+            if (path != null) {
+                try {
+                    Files.deleteIfExists(path);
+                } finally {
+                    spool.release(reserved);
+                }
+            }
+        }
+    }
+}
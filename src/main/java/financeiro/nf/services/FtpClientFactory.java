@@ -0,0 +1,126 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Cria, valida e destrói as sessões FTP (já autenticadas) mantidas no pool do {@link FtpService}.
+ */
+@Slf4j
+class FtpClientFactory extends BasePooledObjectFactory<FTPClient> {
+
+    private final FtpConfig ftpConfig;
+    private final ProcessingMetrics metrics;
+
+    FtpClientFactory(FtpConfig ftpConfig, ProcessingMetrics metrics) {
+        this.ftpConfig = ftpConfig;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public FTPClient create() throws IOException {
+        Timer.Sample sample = metrics.start();
+        FTPClient ftpClient = new FTPClient();
+        ftpClient.setConnectTimeout(ftpConfig.getConnectTimeout());
+        ftpClient.setDefaultTimeout(ftpConfig.getConnectTimeout());
+
+        try {
+            log.debug("🔌 Conectando ao FTP: {}:{}", ftpConfig.getHost(), ftpConfig.getPort());
+            ftpClient.connect(ftpConfig.getHost(), ftpConfig.getPort());
+
+            int replyCode = ftpClient.getReplyCode();
+            if (!FTPReply.isPositiveCompletion(replyCode)) {
+                throw new IOException("Falha na conexão FTP. Código: " + replyCode);
+            }
+
+            log.debug("🔐 Login no FTP: {}", ftpConfig.getUsername());
+            if (!ftpClient.login(ftpConfig.getUsername(), ftpConfig.getPassword())) {
+                throw new IOException("Falha no login FTP: " + ftpClient.getReplyString());
+            }
+
+            ftpClient.enterLocalPassiveMode();
+            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+            ftpClient.setControlKeepAliveTimeout(ftpConfig.getControlKeepAliveTimeout());
+            ftpClient.setDataTimeout(ftpConfig.getDataTimeout());
+            ftpClient.setSoTimeout(ftpConfig.getDataTimeout());
+
+            sample.stop(metrics.ftpConnect(true));
+            log.info("✅ Nova sessão FTP aberta em {}", ftpConfig.getHost());
+            return ftpClient;
+
+        } catch (IOException e) {
+            sample.stop(metrics.ftpConnect(false));
+            log.error("❌ Erro na conexão FTP: {}", e.getMessage());
+            disconnectQuietly(ftpClient);
+            throw e;
+        }
+    }
+
+    @Override
+    public PooledObject<FTPClient> wrap(FTPClient ftpClient) {
+        return new DefaultPooledObject<>(ftpClient);
+    }
+
+    @Override
+    public boolean validateObject(PooledObject<FTPClient> pooled) {
+        FTPClient ftpClient = pooled.getObject();
+        if (!ftpClient.isConnected()) {
+            return false;
+        }
+
+        // Sessões que passaram do tempo máximo de vida são descartadas
+        Instant now = Instant.now();
+        if (Duration.between(pooled.getCreateInstant(), now).toMillis() > ftpConfig.getPoolMaxLifetime()) {
+            log.debug("♻️ Sessão FTP atingiu o tempo máximo de vida, descartando");
+            return false;
+        }
+
+        // Só envia NOOP se a sessão ficou ociosa por mais que o intervalo de validação
+        if (Duration.between(pooled.getLastReturnInstant(), now).toMillis() < ftpConfig.getPoolValidationInterval()) {
+            return true;
+        }
+
+        try {
+            return ftpClient.sendNoOp();
+        } catch (IOException e) {
+            log.debug("Sessão FTP inválida no NOOP: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void destroyObject(PooledObject<FTPClient> pooled) {
+        FTPClient ftpClient = pooled.getObject();
+        try {
+            if (ftpClient.isConnected()) {
+                ftpClient.logout();
+            }
+        } catch (IOException e) {
+            log.debug("Erro no logout do FTP: {}", e.getMessage());
+        } finally {
+            disconnectQuietly(ftpClient);
+        }
+    }
+
+    private void disconnectQuietly(FTPClient ftpClient) {
+        try {
+            if (ftpClient.isConnected()) {
+                ftpClient.disconnect();
+                log.debug("🔌 Desconectado do FTP");
+            }
+        } catch (IOException ex) {
+            log.error("Erro ao desconectar do FTP", ex);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package financeiro.nf.services;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sessão FTP emprestada do pool do {@link FtpService} e mantida durante um ciclo inteiro
+ * (listagem → download → rename) sobre uma única conexão de controle.
+ * Não é thread-safe: cada thread deve abrir a sua própria sessão.
+ */
+@Slf4j
+public class FtpSession implements Closeable {
+
+    private final FTPClient ftpClient;
+    private final FtpService ftpService;
+    private boolean broken = false;
+    private boolean closed = false;
+
+    FtpSession(FTPClient ftpClient, FtpService ftpService) {
+        this.ftpClient = ftpClient;
+        this.ftpService = ftpService;
+    }
+
+    public List<String> listFiles(String directoryPath) throws IOException {
+        List<String> files = new ArrayList<>();
+        scanFiles(directoryPath, false, 500, file -> {
+            if (file.isFile() && XmlBundleProcessor.isIngestible(file.getName())) {
+                files.add(file.getName());
+            }
+        });
+        log.info("🎯 Total de XMLs encontrados em {}: {}", directoryPath, files.size());
+        return files;
+    }
+
+    /**
+     * Percorre as entradas do diretório em páginas de {@code pageSize}, sem montar o
+     * {@code FTPFile[]} completo. Com {@code mlsd}, usa MLSD (tamanho e data de modificação
+     * padronizados); caso contrário, LIST.
+     */
+    public void scanFiles(String directoryPath, boolean mlsd, int pageSize, Consumer<FTPFile> consumer)
+            throws IOException {
+        execute(client -> {
+            FTPListParseEngine engine = mlsd
+                    ? client.initiateMListParsing(directoryPath)
+                    : client.initiateListParsing(directoryPath);
+            while (engine.hasNext()) {
+                for (FTPFile file : engine.getNext(pageSize)) {
+                    // Linhas do LIST que o parser não reconhece vêm como null
+                    if (file != null) {
+                        consumer.accept(file);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Indica se o servidor anuncia MLST/MLSD no FEAT.
+     */
+    public boolean supportsMlsd() throws IOException {
+        return execute(client -> client.hasFeature("MLST"));
+    }
+
+    /**
+     * Abre o canal de dados do arquivo. O stream deve ser fechado antes do próximo comando
+     * na sessão; o fechamento conclui o RETR pendente.
+     * O tempo e os bytes da transferência vão para as métricas no fechamento; quando o parse lê
+     * direto do stream, o tempo inclui o parse.
+     */
+    public InputStream retrieveFile(String filePath) throws IOException {
+        return retrieveFile(filePath, 0);
+    }
+
+    /**
+     * Como {@link #retrieveFile(String)}, a partir do byte {@code offset} (REST antes do RETR),
+     * para retomar uma transferência interrompida.
+     */
+    public InputStream retrieveFile(String filePath, long offset) throws IOException {
+        ProcessingMetrics metrics = ftpService.getMetrics();
+        Timer.Sample sample = metrics.start();
+        InputStream inputStream = execute(client -> {
+            // O FTPClient zera o offset depois do RETR
+            client.setRestartOffset(offset);
+            InputStream is = client.retrieveFileStream(filePath);
+            if (is == null) {
+                throw new FtpService.FtpReplyException("Falha ao baixar arquivo " + filePath
+                        + ". Resposta FTP: " + client.getReplyString(), client.getReplyCode());
+            }
+            return is;
+        });
+
+        return new FilterInputStream(inputStream) {
+            private boolean streamClosed = false;
+            private long bytes = 0;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytes++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytes += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (streamClosed) return;
+                streamClosed = true;
+
+                try {
+                    super.close();
+                    // Resposta negativa (ex.: 426 em transferência interrompida) mantém o controle sincronizado
+                    if (!ftpClient.completePendingCommand()) {
+                        log.warn("Transferência não concluída: {}", ftpClient.getReplyString());
+                    }
+                } catch (IOException e) {
+                    broken = true;
+                    throw e;
+                } finally {
+                    sample.stop(metrics.ftpDownload());
+                    metrics.ftpDownloadBytes().record(bytes);
+                }
+            }
+        };
+    }
+
+    /**
+     * Tamanho do arquivo no servidor (SIZE, resposta 213), ou -1 se o servidor não atende o comando.
+     */
+    public long size(String filePath) throws IOException {
+        return execute(client -> {
+            if (client.sendCommand("SIZE", filePath) != FTPReply.FILE_STATUS) {
+                return -1L;
+            }
+            try {
+                return Long.parseLong(client.getReplyString().trim().substring(3).trim());
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                log.warn("Resposta inesperada ao SIZE de {}: {}", filePath, client.getReplyString());
+                return -1L;
+            }
+        });
+    }
+
+    /**
+     * Renomeia (move) o arquivo sem LIST prévio: quem chama já sabe que a origem existe
+     * (normalmente pela listagem do próprio ciclo).
+     */
+    public void rename(String sourcePath, String targetPath) throws IOException {
+        execute(client -> {
+            if (!client.rename(sourcePath, targetPath)) {
+                log.error("Falha ao mover arquivo. Código de retorno: {}", client.getReplyCode());
+                throw new FtpService.FtpReplyException("Falha ao mover arquivo no FTP: " + sourcePath,
+                        client.getReplyCode());
+            }
+            log.debug("Arquivo movido de {} para {}", sourcePath, targetPath);
+            return null;
+        });
+    }
+
+    public boolean exists(String filePath) throws IOException {
+        return execute(client -> client.listFiles(filePath).length > 0);
+    }
+
+    /**
+     * CWD em vez de LIST: não transfere a listagem de uma pasta com milhares de arquivos.
+     */
+    public boolean directoryExists(String path) throws IOException {
+        return execute(client -> client.changeWorkingDirectory(path));
+    }
+
+    public boolean deleteFile(String path) throws IOException {
+        return execute(client -> client.deleteFile(path));
+    }
+
+    public boolean makeDirectory(String path) throws IOException {
+        return execute(client -> client.makeDirectory(path));
+    }
+
+    /**
+     * Indica que a conexão caiu ou ficou em estado inconsistente; a sessão será descartada no close.
+     */
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Executa um comando na conexão da sessão. Erros de I/O marcam a sessão como quebrada;
+     * respostas negativas do servidor ({@link FtpService.FtpReplyException}) não.
+     */
+    <T> T execute(FtpCallback<T> callback) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Sessão FTP já encerrada");
+        }
+        if (broken) {
+            throw new IOException("Sessão FTP indisponível após erro de conexão");
+        }
+        try {
+            return callback.doWithClient(ftpClient);
+        } catch (FtpService.FtpReplyException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+
+        if (broken) {
+            ftpService.invalidateClient(ftpClient);
+        } else {
+            ftpService.releaseClient(ftpClient);
+        }
+    }
+
+    @FunctionalInterface
+    interface FtpCallback<T> {
+        T doWithClient(FTPClient ftpClient) throws IOException;
+    }
+}
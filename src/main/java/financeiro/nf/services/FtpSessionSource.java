@@ -0,0 +1,79 @@
+package financeiro.nf.services;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * {@link IngestionSource} sobre a sessão FTP do ciclo: lê da pasta de entrada e arquiva
+ * conforme o {@link ArchiveLayout}. Com o {@link FileSpool} habilitado, o arquivo é baixado
+ * inteiro para o disco antes da leitura.
+ */
+class FtpSessionSource implements IngestionSource {
+
+    private final FtpSession session;
+    private final String sourceDir;
+    private final ArchiveLayout archiveLayout;
+    private final FileSpool fileSpool;
+
+    FtpSessionSource(FtpSession session, String sourceDir, ArchiveLayout archiveLayout, FileSpool fileSpool) {
+        this.session = session;
+        this.sourceDir = sourceDir;
+        this.archiveLayout = archiveLayout;
+        this.fileSpool = fileSpool;
+    }
+
+    @Override
+    public String getName() {
+        return name(sourceDir);
+    }
+
+    /**
+     * Nome da origem para uma pasta do FTP, também usado pelos modos paralelos no
+     * {@link RetryLedgerService}.
+     */
+    static String name(String sourceDir) {
+        return "ftp:" + sourceDir;
+    }
+
+    @Override
+    public InputStream open(String filename) throws IOException {
+        if (!fileSpool.isEnabled()) {
+            return session.retrieveFile(sourceDir + "/" + filename);
+        }
+
+        FileSpool.SpooledFile file;
+        try {
+            file = fileSpool.fetch(sourceDir + "/" + filename);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download de " + filename + " interrompido");
+        }
+        // Fechar o stream apaga o arquivo do spool
+        return new FilterInputStream(file.open()) {
+            @Override
+            public void close() throws IOException {
+                try (file) {
+                    super.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void moveToProcessed(String filename) throws IOException {
+        // A listagem do ciclo já garante que a origem existe: rename direto
+        archiveLayout.moveToProcessed(session, sourceDir, filename);
+    }
+
+    @Override
+    public void moveToError(String filename) throws IOException {
+        archiveLayout.moveToError(session, sourceDir, filename);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !session.isBroken();
+    }
+}
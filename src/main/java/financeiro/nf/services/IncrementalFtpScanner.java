@@ -0,0 +1,240 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPFile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Listagem incremental do diretório de entrada: a cada ciclo emite apenas os XMLs (e pacotes
+ * {@code .zip}/{@code .xml.gz}) novos ou alterados (tamanho/data de modificação) desde a listagem
+ * anterior, e só depois de estáveis.
+ * <p>
+ * Um arquivo está estável (upload concluído) quando:
+ * <ul>
+ *     <li>existe um marcador {@code <arquivo>.done}/{@code <arquivo>.ok} (ou {@code <nome>.done}), ou</li>
+ *     <li>tamanho e data não mudaram desde a primeira listagem que os viu, há pelo menos
+ *     {@code ftp.stable-unchanged-period}, ou</li>
+ *     <li>a data de modificação do MLSD é mais antiga que {@code ftp.stable-quiet-period}.</li>
+ * </ul>
+ * Com {@code ftp.stable-require-marker}, só o marcador vale. Arquivos ainda instáveis ficam para
+ * o próximo ciclo sem serem baixados.
+ * <p>
+ * O estado guarda somente as entradas presentes na última listagem; arquivos processados saem
+ * do diretório e, com eles, do estado. Quem emitiu um arquivo e o deixou no lugar para nova
+ * tentativa deve chamar {@link #forget}, senão ele não volta a ser emitido.
+ */
+@Component
+@Slf4j
+public class IncrementalFtpScanner {
+
+    private final FtpConfig ftpConfig;
+    private final LongSupplier clock;
+    private final Map<String, DirectoryState> directories = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IncrementalFtpScanner(FtpConfig ftpConfig) {
+        this(ftpConfig, System::currentTimeMillis);
+    }
+
+    IncrementalFtpScanner(FtpConfig ftpConfig, LongSupplier clock) {
+        this.ftpConfig = ftpConfig;
+        this.clock = clock;
+    }
+
+    public record ScanResult(List<String> files, int deferred, List<String> orphanMarkers) {
+    }
+
+    /**
+     * @return XMLs novos ou alterados e já estáveis, do mais antigo para o mais recente,
+     * e os marcadores cujo XML já saiu do diretório (podem ser removidos)
+     */
+    public ScanResult scan(FtpSession session, String directoryPath) throws IOException {
+        DirectoryState state = directories.computeIfAbsent(directoryPath, dir -> new DirectoryState());
+
+        synchronized (state) {
+            if (state.mlsd == null) {
+                state.mlsd = ftpConfig.isMlsdEnabled() && session.supportsMlsd();
+                log.info("📂 Listagem de {} via {}", directoryPath, state.mlsd ? "MLSD" : "LIST");
+            }
+
+            List<String> markerExtensions = markerExtensions();
+            List<FTPFile> xmlFiles = new ArrayList<>();
+            // Marcadores por nome em minúsculas → nome original no servidor
+            Map<String, String> markers = new HashMap<>();
+            int pageSize = Math.max(1, ftpConfig.getListPageSize());
+
+            session.scanFiles(directoryPath, state.mlsd, pageSize, file -> {
+                if (!file.isFile()) {
+                    return;
+                }
+                String lowerName = file.getName().toLowerCase(Locale.ROOT);
+                if (XmlBundleProcessor.isIngestible(lowerName)) {
+                    xmlFiles.add(file);
+                } else if (markerExtensions.stream().anyMatch(lowerName::endsWith)) {
+                    markers.put(lowerName, file.getName());
+                }
+            });
+
+            long now = clock.getAsLong();
+            Map<String, Entry> current = new HashMap<>();
+            Set<String> markersInUse = new HashSet<>();
+            List<FTPFile> ready = new ArrayList<>();
+            int deferred = 0;
+
+            for (FTPFile file : xmlFiles) {
+                String filename = file.getName();
+                String signature = signature(file);
+                Entry previous = state.entries.get(filename);
+                boolean unchanged = previous != null && previous.signature.equals(signature);
+                Entry entry = unchanged ? previous : new Entry(signature, now);
+                current.put(filename, entry);
+
+                String marker = findMarker(filename, markers, markerExtensions);
+                if (marker != null) {
+                    markersInUse.add(marker);
+                }
+                if (entry.emitted) {
+                    continue;
+                }
+
+                if (isStable(file, entry, marker != null, state.mlsd, now)) {
+                    entry.emitted = true;
+                    ready.add(file);
+                } else {
+                    deferred++;
+                }
+            }
+
+            // Entradas que sumiram (movidas/removidas) deixam o estado
+            state.entries = current;
+
+            ready.sort(Comparator.comparingLong(IncrementalFtpScanner::modifiedAt));
+            List<String> files = new ArrayList<>(ready.size());
+            for (FTPFile file : ready) {
+                files.add(file.getName());
+            }
+
+            // Marcadores cujo XML estava presente na listagem anterior e já foi arquivado; um marcador
+            // enviado antes do próprio XML não entra aqui
+            List<String> orphanMarkers = state.markersInUse.stream()
+                    .filter(marker -> markers.containsKey(marker) && !markersInUse.contains(marker))
+                    .map(markers::get)
+                    .toList();
+            state.markersInUse = markersInUse;
+
+            log.info("🎯 {} XMLs prontos em {} ({} no diretório, {} aguardando fim do upload)",
+                    files.size(), directoryPath, current.size(), deferred);
+            return new ScanResult(files, deferred, orphanMarkers);
+        }
+    }
+
+    /**
+     * Faz o arquivo ser emitido de novo na próxima listagem, mesmo sem alteração.
+     */
+    public void forget(String directoryPath, Collection<String> filenames) {
+        DirectoryState state = directories.get(directoryPath);
+        if (state == null || filenames.isEmpty()) {
+            return;
+        }
+        synchronized (state) {
+            for (String filename : filenames) {
+                Entry entry = state.entries.get(filename);
+                if (entry != null) {
+                    entry.emitted = false;
+                }
+            }
+        }
+    }
+
+    private boolean isStable(FTPFile file, Entry entry, boolean hasMarker, boolean mlsd, long now) {
+        if (hasMarker) {
+            return true;
+        }
+        if (ftpConfig.isStableRequireMarker()) {
+            return false;
+        }
+        // Duas listagens a milissegundos uma da outra não provam que o upload terminou: a assinatura
+        // precisa ficar igual durante o período mínimo desde que foi vista pela primeira vez
+        if (now > entry.firstSeen && now - entry.firstSeen >= ftpConfig.getStableUnchangedPeriod()) {
+            return true;
+        }
+        // Só a data do MLSD (UTC, com segundos) é confiável para comparar com o relógio local
+        long quietPeriod = ftpConfig.getStableQuietPeriod();
+        long modifiedAt = modifiedAt(file);
+        return mlsd && quietPeriod > 0 && modifiedAt > 0 && now - modifiedAt >= quietPeriod;
+    }
+
+    private List<String> markerExtensions() {
+        String configured = ftpConfig.getStableMarkers();
+        if (configured == null || configured.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(configured.split(","))
+                .map(String::trim)
+                .filter(extension -> !extension.isEmpty())
+                .map(extension -> extension.toLowerCase(Locale.ROOT))
+                .toList();
+    }
+
+    private static String findMarker(String filename, Map<String, String> markers, List<String> markerExtensions) {
+        String lowerName = filename.toLowerCase(Locale.ROOT);
+        // nota.xml, nota.zip e nota.xml.gz aceitam nota.done
+        String baseName = lowerName.endsWith(".gz") ? lowerName.substring(0, lowerName.length() - ".gz".length())
+                : lowerName;
+        if (baseName.endsWith(".xml") || baseName.endsWith(".zip")) {
+            baseName = baseName.substring(0, baseName.length() - ".xml".length());
+        }
+        for (String extension : markerExtensions) {
+            if (markers.containsKey(lowerName + extension)) {
+                return lowerName + extension;
+            }
+            if (markers.containsKey(baseName + extension)) {
+                return baseName + extension;
+            }
+        }
+        return null;
+    }
+
+    private static String signature(FTPFile file) {
+        return file.getSize() + "@" + modifiedAt(file);
+    }
+
+    private static long modifiedAt(FTPFile file) {
+        Calendar timestamp = file.getTimestamp();
+        return timestamp == null ? 0 : timestamp.getTimeInMillis();
+    }
+
+    private static class DirectoryState {
+        private Boolean mlsd;
+        private Map<String, Entry> entries = new HashMap<>();
+        private Set<String> markersInUse = new HashSet<>();
+    }
+
+    private static class Entry {
+        private final String signature;
+        private final long firstSeen;
+        private boolean emitted = false;
+
+        Entry(String signature, long firstSeen) {
+            this.signature = signature;
+            this.firstSeen = firstSeen;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package financeiro.nf.services;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Processamento arquivo a arquivo, comum a todas as {@link IngestionSource}s:
+ * leitura → {@link XmlProcessingService#processXml} → arquivamento em processados ou erro.
+ * Pacotes ({@code .zip}/{@code .gz}) passam pelo {@link XmlBundleProcessor} e só são arquivados
+ * depois de todas as entradas terem resultado: em processados se nenhuma falhou, senão em erro.
+ * O {@link RetryLedgerService} decide se um arquivo com falha fica na origem para nova tentativa
+ * ou vai para a pasta de erro.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class IngestionProcessor {
+
+    private final XmlProcessingService xmlProcessingService;
+    private final XmlBundleProcessor bundleProcessor;
+    private final RetryLedgerService retryLedger;
+    private final ProcessingMetrics metrics;
+
+    /**
+     * @return se o arquivo saiu da origem (para processados ou erro)
+     */
+    public boolean process(IngestionSource source, String filename) {
+        Timer.Sample sample = metrics.start();
+        boolean settled = processAndMove(source, filename);
+        if (settled) {
+            sample.stop(metrics.fileLatency());
+        }
+        return settled;
+    }
+
+    private boolean processAndMove(IngestionSource source, String filename) {
+        if (XmlBundleProcessor.isBundle(filename)) {
+            return processBundle(source, filename);
+        }
+        try {
+            try (InputStream is = source.open(filename)) {
+                xmlProcessingService.processXml(is, filename);
+            }
+        } catch (Exception e) {
+            if (retryLedger.shouldRetry(source.getName(), filename, e)) {
+                return false;
+            }
+            log.error("Erro no processamento do XML {} ({})", filename, source.getName(), e);
+            metrics.fileFailed(e);
+            return source.isAvailable() && moveToError(source, filename);
+        }
+
+        if (!moveToProcessed(source, filename)) {
+            return false;
+        }
+        metrics.fileProcessed();
+        return true;
+    }
+
+    /**
+     * Entradas já contam nas métricas uma a uma; aqui só se decide o destino do pacote.
+     */
+    private boolean processBundle(IngestionSource source, String filename) {
+        XmlBundleProcessor.BundleResult result;
+        try (InputStream is = source.open(filename)) {
+            result = bundleProcessor.process(is, filename);
+        } catch (Exception e) {
+            // Pacote lido pela metade: sem a origem fica para a próxima tentativa, que só grava o que faltou
+            log.error("Erro na leitura do pacote {} ({})", filename, source.getName(), e);
+            return source.isAvailable() && !retryLedger.shouldRetry(source.getName(), filename, e)
+                    && moveToError(source, filename);
+        }
+
+        if (result.entries().isEmpty()) {
+            log.warn("📦 Pacote {} sem XMLs", filename);
+            return moveToError(source, filename);
+        }
+        Exception retryable = result.retryableFailure();
+        if (retryable != null && retryLedger.shouldRetry(source.getName(), filename, retryable)) {
+            log.warn("⏸️ Pacote {} fica na origem: as entradas com falha serão lidas de novo", filename);
+            return false;
+        }
+        if (!result.isSuccessful()) {
+            log.warn("📦 Pacote {} com {} de {} XMLs em erro", filename,
+                    result.count(NfXmlWriteResult.Status.FAILED), result.entries().size());
+            return moveToError(source, filename);
+        }
+        return moveToProcessed(source, filename);
+    }
+
+    private boolean moveToProcessed(IngestionSource source, String filename) {
+        try {
+            source.moveToProcessed(filename);
+            retryLedger.settled(source.getName(), filename);
+            log.info("XML {} processado e movido com sucesso", filename);
+            return true;
+        } catch (IOException ioException) {
+            log.error("Falha ao mover XML {}", filename, ioException);
+            return false;
+        }
+    }
+
+    private boolean moveToError(IngestionSource source, String filename) {
+        try {
+            source.moveToError(filename);
+            retryLedger.settled(source.getName(), filename);
+            log.warn("XML {} movido para pasta de erro", filename);
+            return true;
+        } catch (IOException ioException) {
+            log.error("Erro ao mover arquivo falho {} para pasta de erro", filename, ioException);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package financeiro.nf.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Origem dos XMLs a processar (servidor FTP, diretório local/NFS...). O {@link IngestionProcessor}
+ * lê o arquivo pela origem, grava a nota e pede à origem que arquive o arquivo como processado
+ * ou com erro.
+ */
+public interface IngestionSource {
+
+    String getName();
+
+    InputStream open(String filename) throws IOException;
+
+    void moveToProcessed(String filename) throws IOException;
+
+    void moveToError(String filename) throws IOException;
+
+    /**
+     * Falso quando a origem ficou inacessível (ex.: a conexão FTP caiu): o arquivo com falha
+     * fica onde está para a próxima tentativa, em vez de ir para a pasta de erro.
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+}
@@ -0,0 +1,290 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.LocalSourceConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Origem local/NFS orientada a eventos: um {@link WatchService} (inotify no Linux) avisa da
+ * chegada de cada XML, que é processado assim que para de receber escritas por
+ * {@code file.local-source.settle-delay} ms, sem esperar o ciclo agendado do FTP.
+ * Os arquivos são arquivados com move atômico em {@code processed/} e {@code error/},
+ * particionados por data como no FTP.
+ * <p>
+ * Produtores devem preferir gravar com outro nome e renomear para {@code .xml} ao final;
+ * a espera por silêncio cobre os que escrevem direto no nome final.
+ * <p>
+ * O inotify só vê escritas feitas por esta máquina: arquivos gravados por outro cliente NFS são
+ * encontrados pela varredura a cada {@code file.local-source.rescan-interval} ms e, sem eventos,
+ * a espera por silêncio usa a data de alteração do arquivo.
+ */
+@Component
+@Slf4j
+public class LocalDirectorySource implements IngestionSource, SmartLifecycle {
+
+    private final LocalSourceConfig config;
+    private final IngestionProcessor ingestionProcessor;
+    private final RetryLedgerService retryLedger;
+
+    private final Map<String, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private Path directory;
+    private WatchService watchService;
+    private ScheduledExecutorService executor;
+    private volatile boolean running = false;
+
+    public LocalDirectorySource(LocalSourceConfig config, IngestionProcessor ingestionProcessor,
+                                RetryLedgerService retryLedger) {
+        this.config = config;
+        this.ingestionProcessor = ingestionProcessor;
+        this.retryLedger = retryLedger;
+    }
+
+    @Override
+    public String getName() {
+        return "local:" + directory;
+    }
+
+    @Override
+    public InputStream open(String filename) throws IOException {
+        return Files.newInputStream(directory.resolve(filename));
+    }
+
+    @Override
+    public void moveToProcessed(String filename) throws IOException {
+        move(filename, root(config.getProcessedDir(), "processed"));
+    }
+
+    @Override
+    public void moveToError(String filename) throws IOException {
+        move(filename, root(config.getErrorDir(), "error"));
+    }
+
+    @Override
+    public void start() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        try {
+            directory = Paths.get(config.getDirectory()).toAbsolutePath();
+            Files.createDirectories(directory);
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new IllegalStateException("Não foi possível observar o diretório " + config.getDirectory(), e);
+        }
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(Math.max(1, config.getWorkers()), runnable -> {
+            Thread thread = new Thread(runnable, "nf-local-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+
+        Thread watcher = new Thread(this::watchLoop, "nf-local-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        // Arquivos que chegaram com a aplicação parada não geram evento
+        rescan();
+        if (config.getRescanInterval() > 0) {
+            executor.scheduleWithFixedDelay(this::rescan, config.getRescanInterval(), config.getRescanInterval(),
+                    TimeUnit.MILLISECONDS);
+        }
+        log.info("👀 Observando XMLs em {}", directory);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Erro ao encerrar o WatchService de {}", directory, e);
+        }
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void watchLoop() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Eventos perdidos: varre o diretório para não esquecer nenhum arquivo
+                    rescan();
+                } else if (event.context() instanceof Path path && isIngestible(path.toString())) {
+                    schedule(path.toString());
+                }
+            }
+
+            if (!key.reset()) {
+                log.error("❌ Diretório {} deixou de ser observável, origem local parada", directory);
+                running = false;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Agenda os arquivos da pasta que ainda não estão agendados nem em processamento; os que já
+     * estão (inclusive os que aguardam nova tentativa) mantêm o seu horário.
+     */
+    private void rescan() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String filename = file.getFileName().toString();
+                if (Files.isRegularFile(file) && isIngestible(filename)
+                        && !pending.containsKey(filename) && !inFlight.contains(filename)) {
+                    schedule(filename);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // Também na varredura periódica: uma exceção cancelaria as próximas execuções
+            log.error("Erro ao varrer o diretório {}", directory, e);
+        }
+    }
+
+    /**
+     * (Re)agenda o arquivo: cada nova escrita adia o processamento pelo settle-delay.
+     */
+    private void schedule(String filename) {
+        pending.compute(filename, (name, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            return executor.schedule(() -> handle(name), config.getSettleDelay(), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void handle(String filename) {
+        pending.remove(filename);
+        // Arquivo ainda sendo gravado por quem não gera eventos (outro cliente NFS)
+        long wait = config.getSettleDelay() - millisSinceLastWrite(filename);
+        if (wait > 0 && running) {
+            pending.computeIfAbsent(filename, name ->
+                    executor.schedule(() -> handle(name), wait, TimeUnit.MILLISECONDS));
+            return;
+        }
+        // Um evento tardio do mesmo arquivo pode chegar enquanto ele ainda está sendo processado
+        if (!inFlight.add(filename)) {
+            schedule(filename);
+            return;
+        }
+        boolean retry = false;
+        try {
+            if (Files.isRegularFile(directory.resolve(filename))) {
+                // Falha transitória ou move que não aconteceu: o arquivo continua na pasta
+                retry = !ingestionProcessor.process(this, filename);
+            }
+        } finally {
+            inFlight.remove(filename);
+        }
+        if (retry && running) {
+            // Com o registro de novas tentativas, a espera cresce a cada falha do arquivo
+            long delay = retryLedger.delayUntilRetry(getName(), filename, config.getRetryDelay());
+            pending.computeIfAbsent(filename, name ->
+                    executor.schedule(() -> handle(name), delay, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private long millisSinceLastWrite(String filename) {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(directory.resolve(filename)).toMillis();
+        } catch (IOException e) {
+            // Arquivado ou removido nesse meio tempo: o handle descarta
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private void move(String filename, Path root) throws IOException {
+        String pattern = config.getArchivePartitionPattern();
+        Path targetDir = pattern == null || pattern.isBlank()
+                ? root
+                : root.resolve(LocalDate.now().format(DateTimeFormatter.ofPattern(pattern)));
+        Files.createDirectories(targetDir);
+
+        Path source = directory.resolve(filename);
+        Path target = uniqueTarget(targetDir, filename);
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Destino em outro sistema de arquivos: cópia seguida de remoção, sem sobrescrever
+            Files.move(source, target);
+        }
+    }
+
+    /**
+     * Mesmo nome reenviado no mesmo dia: o arquivado antes é mantido e o novo recebe um sufixo
+     * ({@code nota-1.xml}, {@code nota-2.xml}...), já que o move atômico sobrescreveria o destino.
+     */
+    private static Path uniqueTarget(Path targetDir, String filename) {
+        Path target = targetDir.resolve(filename);
+        if (!Files.exists(target)) {
+            return target;
+        }
+        String lowerName = filename.toLowerCase(Locale.ROOT);
+        int extension = lowerName.endsWith(".xml.gz")
+                ? filename.length() - ".xml.gz".length()
+                : filename.lastIndexOf('.');
+        if (extension < 0) {
+            extension = filename.length();
+        }
+        for (int i = 1; Files.exists(target); i++) {
+            target = targetDir.resolve(filename.substring(0, extension) + "-" + i + filename.substring(extension));
+        }
+        log.warn("⚠️ {} já existe em {}, arquivado como {}", filename, targetDir, target.getFileName());
+        return target;
+    }
+
+    private Path root(String configured, String defaultName) {
+        return configured == null || configured.isBlank() ? directory.resolve(defaultName) : Paths.get(configured);
+    }
+
+    private static boolean isIngestible(String filename) {
+        return XmlBundleProcessor.isIngestible(filename);
+    }
+}
@@ -0,0 +1,46 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Grava as notas de um ciclo em lotes JDBC: com IDs de sequência e inserts ordenados,
+ * o Hibernate agrupa os INSERTs em um único round trip por lote.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class NfXmlBatchWriter {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ProcessingConfig processingConfig;
+
+    @Transactional
+    public void insertAll(List<NfXmlEntity> entities) {
+        int batchSize = Math.max(1, processingConfig.getPersistBatchSize());
+        int count = 0;
+
+        for (NfXmlEntity entity : entities) {
+            entityManager.persist(entity);
+            if (++count % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+
+        // Força o envio dentro do método para que falhas apareçam aqui, e não no commit
+        entityManager.flush();
+        entityManager.clear();
+        log.debug("💾 {} notas gravadas em lote", entities.size());
+    }
+}
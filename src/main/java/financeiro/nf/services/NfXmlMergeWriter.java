@@ -0,0 +1,154 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Gravação idempotente com {@code MERGE ... WHEN NOT MATCHED THEN INSERT}: a verificação de
+ * duplicidade e o insert acontecem no mesmo comando, em lotes JDBC, sem a janela entre o
+ * {@code existsBy...} e o {@code save} em que dois workers podiam gravar a mesma nota.
+ * A contagem de linhas de cada comando do lote diz se a nota foi inserida (1) ou já existia (0).
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class NfXmlMergeWriter {
+
+    private static final List<Column> COLUMNS = List.of(
+            new Column("CD_ESTABELECIMENTO", Types.NUMERIC, NfXmlEntity::getCdEstabelecimento),
+            new Column("CD_CGC_EMITENTE", Types.VARCHAR, NfXmlEntity::getCdCgcEmitente),
+            new Column("CD_SERIE_NF", Types.VARCHAR, NfXmlEntity::getCdSerieNf),
+            new Column("NR_SEQUENCIA_NF", Types.NUMERIC, NfXmlEntity::getNrSequenciaNf),
+            new Column("CD_OPERACAO_NF", Types.NUMERIC, NfXmlEntity::getCdOperacaoNf),
+            new Column("DT_EMISSAO", Types.TIMESTAMP, NfXmlEntity::getDtEmissao),
+            new Column("DT_ENTRADA_SAIDA", Types.TIMESTAMP, NfXmlEntity::getDtEntradaSaida),
+            new Column("IE_ACAO_NF", Types.VARCHAR, NfXmlEntity::getIeAcaoNf),
+            new Column("IE_EMISSAO_NF", Types.VARCHAR, NfXmlEntity::getIeEmissaoNf),
+            new Column("IE_TIPO_FRETE", Types.VARCHAR, NfXmlEntity::getIeTipoFrete),
+            new Column("VL_MERCADORIA", Types.NUMERIC, NfXmlEntity::getVlMercadoria),
+            new Column("VL_TOTAL_NOTA", Types.NUMERIC, NfXmlEntity::getVlTotalNota),
+            new Column("QT_PESO_BRUTO", Types.NUMERIC, NfXmlEntity::getQtPesoBruto),
+            new Column("QT_PESO_LIQUIDO", Types.NUMERIC, NfXmlEntity::getQtPesoLiquido),
+            new Column("DT_ATUALIZACAO", Types.TIMESTAMP, NfXmlEntity::getDtAtualizacao),
+            new Column("NM_USUARIO", Types.VARCHAR, NfXmlEntity::getNmUsuario),
+            new Column("CD_CONDICAO_PAGAMENTO", Types.NUMERIC, NfXmlEntity::getCdCondicaoPagamento),
+            new Column("DT_CONTABIL", Types.TIMESTAMP, NfXmlEntity::getDtContabil),
+            new Column("CD_CGC", Types.VARCHAR, NfXmlEntity::getCdCgc),
+            new Column("CD_PESSOA_FISICA", Types.VARCHAR, NfXmlEntity::getCdPessoaFisica),
+            new Column("VL_IPI", Types.NUMERIC, NfXmlEntity::getVlIpi),
+            new Column("VL_DESCONTOS", Types.NUMERIC, NfXmlEntity::getVlDescontos),
+            new Column("VL_FRETE", Types.NUMERIC, NfXmlEntity::getVlFrete),
+            new Column("VL_SEGURO", Types.NUMERIC, NfXmlEntity::getVlSeguro),
+            new Column("VL_DESPESA_ACESSORIA", Types.NUMERIC, NfXmlEntity::getVlDespesaAcessoria),
+            new Column("DS_OBSERVACAO", Types.VARCHAR, NfXmlEntity::getDsObservacao),
+            new Column("NR_NOTA_FISCAL", Types.VARCHAR, NfXmlEntity::getNrNotaFiscal),
+            new Column("NR_DANFE", Types.VARCHAR, NfXmlEntity::getNrDanfe),
+            new Column("IE_NF_ELETRONICA", Types.VARCHAR, NfXmlEntity::getIeNfEletronica),
+            new Column("DS_XML_COMPL", Types.VARCHAR, NfXmlEntity::getDsXmlCompl),
+            new Column("DS_LINK_XML", Types.VARCHAR, NfXmlEntity::getDsLinkXml),
+            new Column("DT_TRANSMISSAO_NFE", Types.TIMESTAMP, NfXmlEntity::getDtTransmissaoNfe),
+            new Column("DT_CANCELAMENTO", Types.TIMESTAMP, NfXmlEntity::getDtCancelamento),
+            new Column("DS_MOTIVO_CANCEL_NFE", Types.VARCHAR, NfXmlEntity::getDsMotivoCancelNfe),
+            new Column("NR_ITEM_NF", Types.NUMERIC, NfXmlEntity::getNrItemNf),
+            new Column("QT_ITEM_NF", Types.NUMERIC, NfXmlEntity::getQtItemNf),
+            new Column("VL_UNITARIO_ITEM_NF", Types.NUMERIC, NfXmlEntity::getVlUnitarioItemNf),
+            new Column("VL_TOTAL_ITEM_NF", Types.NUMERIC, NfXmlEntity::getVlTotalItemNf),
+            new Column("VL_DESCONTO", Types.NUMERIC, NfXmlEntity::getVlDesconto),
+            new Column("VL_LIQUIDO", Types.NUMERIC, NfXmlEntity::getVlLiquido));
+
+    // Chave de duplicidade: as colunas do índice único NF_NFITEM_NFANEXO_XMLFS_UK
+    private static final List<Column> KEY_COLUMNS = List.of(
+            new Column("NR_NOTA_FISCAL", Types.VARCHAR, NfXmlEntity::getNrNotaFiscal),
+            new Column("CD_SERIE_NF", Types.VARCHAR, NfXmlEntity::getCdSerieNf),
+            new Column("NR_ITEM_NF", Types.NUMERIC, NfXmlEntity::getNrItemNf));
+
+    // NR_SEQUENCIA vem direto da sequência; cada NEXTVAL é um valor que o otimizador pooled nunca recebe.
+    // As chaves vão com CAST explícito: sem ele o H2 (teste de carga) não deduz o tipo do parâmetro no USING
+    static final String MERGE_SQL = "MERGE INTO WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS t"
+            + " USING (SELECT " + KEY_COLUMNS.stream().map(c -> c.typedParameter() + " AS " + c.name())
+            .collect(Collectors.joining(", "))
+            + " FROM DUAL) s"
+            + " ON (" + KEY_COLUMNS.stream().map(c -> "t." + c.name() + " = s." + c.name())
+            .collect(Collectors.joining(" AND ")) + ")"
+            + " WHEN NOT MATCHED THEN INSERT (NR_SEQUENCIA, "
+            + COLUMNS.stream().map(Column::name).collect(Collectors.joining(", "))
+            + ") VALUES (WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS_SEQ.NEXTVAL, "
+            + COLUMNS.stream().map(c -> "?").collect(Collectors.joining(", ")) + ")";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ProcessingConfig processingConfig;
+
+    /**
+     * Executa o MERGE das notas em lotes de {@code file.processing.persist-batch-size}, numa só
+     * transação. Uma falha (ex.: violação do índice único por um worker concorrente) desfaz todas;
+     * o {@code XmlProcessingService} então divide o chunk ao meio, sem separar itens da mesma nota,
+     * até isolar a nota com problema.
+     *
+     * @return o resultado de cada nota, na mesma ordem da lista recebida
+     */
+    @Transactional
+    public List<NfXmlWriteResult> mergeAll(List<NfXmlEntity> entities) {
+        int batchSize = Math.max(1, processingConfig.getPersistBatchSize());
+        int[][] counts = jdbcTemplate.batchUpdate(MERGE_SQL, entities, batchSize, NfXmlMergeWriter::bind);
+
+        List<NfXmlWriteResult> results = new ArrayList<>(entities.size());
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                // Sem a contagem não dá para separar inserida de duplicada: desfaz e deixa
+                // quem chamou dividir o chunk
+                if (count == Statement.SUCCESS_NO_INFO) {
+                    throw new IllegalStateException("Driver JDBC não informou a contagem do MERGE em lote");
+                }
+                results.add(toResult(count));
+            }
+        }
+        log.debug("💾 MERGE de {} notas: {} inseridas", entities.size(),
+                results.stream().filter(r -> r.status() == NfXmlWriteResult.Status.INSERTED).count());
+        return results;
+    }
+
+    private static NfXmlWriteResult toResult(int count) {
+        return count > 0 ? NfXmlWriteResult.inserted() : NfXmlWriteResult.duplicate();
+    }
+
+    private static void bind(PreparedStatement ps, NfXmlEntity entity) throws SQLException {
+        int index = 1;
+        for (Column column : KEY_COLUMNS) {
+            column.bind(ps, index++, entity);
+        }
+        for (Column column : COLUMNS) {
+            column.bind(ps, index++, entity);
+        }
+    }
+
+    private record Column(String name, int sqlType, Function<NfXmlEntity, Object> getter) {
+        String typedParameter() {
+            return sqlType == Types.VARCHAR ? "CAST(? AS VARCHAR2(255))" : "CAST(? AS NUMBER)";
+        }
+
+        void bind(PreparedStatement ps, int index, NfXmlEntity entity) throws SQLException {
+            Object value = getter.apply(entity);
+            if (value instanceof LocalDateTime dateTime) {
+                value = Timestamp.valueOf(dateTime);
+            }
+            StatementCreatorUtils.setParameterValue(ps, index, sqlType, value);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package financeiro.nf.services;
+
+/**
+ * Resultado da gravação de uma nota: inserida, já existente no banco ou com falha.
+ */
+public record NfXmlWriteResult(Status status, Exception error) {
+
+    public enum Status { INSERTED, DUPLICATE, FAILED }
+
+    static NfXmlWriteResult inserted() {
+        return new NfXmlWriteResult(Status.INSERTED, null);
+    }
+
+    static NfXmlWriteResult duplicate() {
+        return new NfXmlWriteResult(Status.DUPLICATE, null);
+    }
+
+    static NfXmlWriteResult failed(Exception error) {
+        return new NfXmlWriteResult(Status.FAILED, error);
+    }
+}
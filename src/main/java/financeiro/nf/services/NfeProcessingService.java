@@ -1,14 +1,14 @@
 package financeiro.nf.services;
 
-import jakarta.annotation.PostConstruct;
+import financeiro.nf.config.ProcessingConfig;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -16,11 +16,38 @@ public class NfeProcessingService {
     private static final Logger log = LoggerFactory.getLogger(NfeProcessingService.class);
 
     private final FtpService ftpService;
-    private final XmlProcessingService xmlProcessingService;
-
-    public NfeProcessingService(FtpService ftpService, XmlProcessingService xmlProcessingService) {
+    private final IngestionProcessor ingestionProcessor;
+    private final XmlPipelineService xmlPipelineService;
+    private final VirtualThreadProcessingService virtualThreadProcessingService;
+    private final ProcessingConfig processingConfig;
+    private final IncrementalFtpScanner scanner;
+    private final ArchiveLayout archiveLayout;
+    private final FileClaimService fileClaimService;
+    private final FileSpool fileSpool;
+    private final RetryLedgerService retryLedger;
+    private final ResilienceService resilience;
+    private final ProcessingMetrics metrics;
+
+    public NfeProcessingService(FtpService ftpService, IngestionProcessor ingestionProcessor,
+                                XmlPipelineService xmlPipelineService,
+                                VirtualThreadProcessingService virtualThreadProcessingService,
+                                ProcessingConfig processingConfig,
+                                IncrementalFtpScanner scanner, ArchiveLayout archiveLayout,
+                                FileClaimService fileClaimService, FileSpool fileSpool,
+                                RetryLedgerService retryLedger, ResilienceService resilience,
+                                ProcessingMetrics metrics) {
         this.ftpService = ftpService;
-        this.xmlProcessingService = xmlProcessingService;
+        this.ingestionProcessor = ingestionProcessor;
+        this.xmlPipelineService = xmlPipelineService;
+        this.virtualThreadProcessingService = virtualThreadProcessingService;
+        this.processingConfig = processingConfig;
+        this.scanner = scanner;
+        this.archiveLayout = archiveLayout;
+        this.fileClaimService = fileClaimService;
+        this.fileSpool = fileSpool;
+        this.retryLedger = retryLedger;
+        this.resilience = resilience;
+        this.metrics = metrics;
     }
 
     @Value("${file.processing.enabled:true}")
@@ -29,95 +56,187 @@ public class NfeProcessingService {
     @Value("${ftp.xmls-dir:/nfs/NFe}")
     private String xmlsDir;
 
-    @Scheduled(fixedDelayString = "${file.processing.delay:60000}")
-    public void processXmlFiles() {
+    /**
+     * Resultado de um ciclo.
+     *
+     * @param settled   arquivos que saíram da origem (processados ou erro)
+     * @param remaining arquivos prontos que não couberam no orçamento do ciclo, em número de
+     *                  arquivos ou em tempo (nem começaram antes de {@code cycle-max-duration})
+     * @param unsettled arquivos que passaram pelo ciclo e ficaram na origem (falha transitória,
+     *                  move que falhou)
+     * @param deferred  arquivos aguardando o fim do upload
+     */
+    public record CycleResult(int settled, int remaining, int unsettled, int deferred) {
+        static final CycleResult EMPTY = new CycleResult(0, 0, 0, 0);
+    }
+
+    /**
+     * Um ciclo de verificação, chamado pelo {@link AdaptiveScheduler}. Processa no máximo
+     * {@code file.processing.cycle-max-files} arquivos ou até {@code cycle-max-duration} ms.
+     */
+    public CycleResult processXmlFiles() {
         log.info("🚀 MÉTODO AGENDADO EXECUTADO - Verificando XMLs...");
 
         if (!processingEnable) {
             log.warn("❌ Processamento de XMLs está DESABILITADO pela configuração");
-            return;
+            return CycleResult.EMPTY;
         }
 
-        log.info("📁 Iniciando verificação de XMLs no diretório: {}", xmlsDir);
+        // Com FTP ou banco fora do ar o ciclo sairia em erro ou mandaria arquivos bons para a pasta de erro
+        if (resilience.isAnyCircuitOpen()) {
+            log.warn("⚡ Circuito aberto (FTP: {}, banco: {}), ciclo ignorado",
+                    resilience.getFtpCircuit().getState(), resilience.getDatabaseCircuit().getState());
+            return CycleResult.EMPTY;
+        }
 
-        try{
-            List<String> files = ftpService.listFiles(xmlsDir);
-            log.info("📊 Total de arquivos encontrados: {}", files.size());
+        log.info("📁 Iniciando verificação de XMLs no diretório: {}", xmlsDir);
+        long deadline = System.currentTimeMillis() + processingConfig.getCycleMaxDuration();
+        CycleResult result = CycleResult.EMPTY;
+
+        // Um único login atende a listagem, os downloads e os renames do ciclo
+        try (FtpSession session = ftpService.openSession()) {
+            // Só os XMLs novos ou alterados desde a última listagem e com upload concluído
+            Timer.Sample listing = metrics.start();
+            IncrementalFtpScanner.ScanResult scan = scanner.scan(session, xmlsDir);
+            listing.stop(metrics.ftpList());
+            deleteMarkers(session, scan.orphanMarkers());
+            List<String> files = scan.files();
 
             if (files.isEmpty()) {
-                log.info("📭 Nenhum arquivo XML encontrado no diretório: {}", xmlsDir);
-                return;
+                log.info("📭 Nenhum arquivo XML novo no diretório: {}", xmlsDir);
+                return new CycleResult(0, 0, 0, scan.deferred());
             }
 
-            log.info("📄 Arquivos encontrados: {}", files);
+            // Arquivos com falha anterior só voltam na sua vez e em número limitado por ciclo; os
+            // que esperam voltam na próxima listagem sem contar como pendência (senão o próximo
+            // ciclo sairia na hora só para ignorá-los de novo)
+            RetryLedgerService.Selection selection = retryLedger.select(FtpSessionSource.name(xmlsDir), files);
+            if (!selection.waiting().isEmpty()) {
+                scanner.forget(xmlsDir, selection.waiting());
+                files = selection.eligible();
+                if (files.isEmpty()) {
+                    log.info("⏸️ {} arquivos aguardando nova tentativa, nenhum na vez", selection.waiting().size());
+                    return new CycleResult(0, 0, 0, scan.deferred());
+                }
+            }
+
+            // O excedente do orçamento volta na próxima listagem, que sai logo em seguida
+            int maxFiles = Math.max(1, processingConfig.getCycleMaxFiles());
+            List<String> overBudget = List.of();
+            if (files.size() > maxFiles) {
+                overBudget = files.subList(maxFiles, files.size());
+                files = files.subList(0, maxFiles);
+                scanner.forget(xmlsDir, overBudget);
+                log.info("📦 {} arquivos prontos, {} ficam para o próximo ciclo", files.size() + overBudget.size(),
+                        overBudget.size());
+            }
+
+            // Com vários nós na mesma pasta, cada um processa só o que conseguiu reservar; o resto
+            // volta na próxima listagem, quando o dono já o terá arquivado ou a reserva terá vencido
+            // (e não contam como pendência deste nó)
+            if (fileClaimService.isEnabled()) {
+                List<String> claimed = fileClaimService.claim(xmlsDir, files);
+                if (claimed.size() < files.size()) {
+                    List<String> notClaimed = new ArrayList<>(files);
+                    notClaimed.removeAll(claimed);
+                    scanner.forget(xmlsDir, notClaimed);
+                    files = claimed;
+                }
+            }
+
+            List<String> unsettled = files;
+            List<String> notStarted = new ArrayList<>();
+            try {
+                if (processingConfig.isVirtualThreadsEnabled() || processingConfig.isPipelineEnabled()) {
+                    // Pacotes são um download só, lido entrada a entrada: vão em sequência na sessão
+                    // da listagem, antes de os XMLs avulsos seguirem para o modo paralelo
+                    List<String> bundles = files.stream().filter(XmlBundleProcessor::isBundle).toList();
+                    List<String> xmlFiles = files.stream().filter(file -> !XmlBundleProcessor.isBundle(file)).toList();
+                    List<String> pending = new ArrayList<>(processSequentially(session, bundles, deadline, notStarted));
+                    // Libera a conexão da listagem: workers e virtual threads usam sessões próprias
+                    session.close();
+                    if (!xmlFiles.isEmpty()) {
+                        XmlPipelineService.PipelineResult parallel = processingConfig.isVirtualThreadsEnabled()
+                                ? virtualThreadProcessingService.run(xmlFiles, xmlsDir, deadline)
+                                : xmlPipelineService.run(xmlFiles, xmlsDir, deadline);
+                        pending.addAll(parallel.unsettled());
+                        notStarted.addAll(parallel.notStarted());
+                    }
+                    unsettled = pending;
+                } else {
+                    unsettled = processSequentially(session, files, deadline, notStarted);
+                }
+            } finally {
+                // Arquivos que ficaram na origem voltam na próxima listagem, para qualquer nó; os
+                // arquivados seguem reservados até a reserva vencer
+                scanner.forget(xmlsDir, unsettled);
+                if (fileClaimService.isEnabled()) {
+                    List<String> settled = new ArrayList<>(files);
+                    settled.removeAll(unsettled);
+                    fileClaimService.release(xmlsDir, unsettled);
+                    fileClaimService.complete(xmlsDir, settled);
+                }
+            }
 
-            files.forEach(file -> {
-                String sourcePath = xmlsDir + "/" + file;
-                String targetPath = xmlsDir + "/processed/" + file;
-                log.info("🔄 Processando arquivo: {}", file);
-                processXmlFile(sourcePath, targetPath, file);
-            });
+            // Os que o tempo do ciclo não alcançou estão prontos como o excedente do orçamento: o
+            // próximo ciclo sai na hora, em vez de esperar como se tivessem falhado
+            result = new CycleResult(files.size() - unsettled.size(), overBudget.size() + notStarted.size(),
+                    unsettled.size() - notStarted.size(), scan.deferred());
 
         } catch (IOException e) {
             log.error("💥 Falha ao verificar XMLs no FTP", e);
         }
 
         log.info("✅ Verificação de XMLs concluída");
+        return result;
     }
 
-    private void processXmlFile(String sourcePath, String targetPath, String filename) {
-        try (InputStream is = ftpService.downloadFile(sourcePath)) {
-            xmlProcessingService.processXml(is, filename);
-
-            if (ftpService.moveFile(sourcePath, targetPath)) {
-                log.info("XML {} processado e movido com sucesso", filename);
-            }else {
-                log.error("Falha ao mover XML {}", filename);
+    /**
+     * @param notStarted recebe os arquivos que ficaram de fora por causa do {@code deadline}
+     * @return os arquivos que continuam na origem, inclusive os de {@code notStarted}
+     */
+    private List<String> processSequentially(FtpSession session, List<String> files, long deadline,
+                                             List<String> notStarted) {
+        IngestionSource source = new FtpSessionSource(session, xmlsDir, archiveLayout, fileSpool);
+        List<String> unsettled = new ArrayList<>();
+        boolean stopped = false;
+        boolean timedOut = false;
+        for (String file : files) {
+            if (!stopped && (session.isBroken() || System.currentTimeMillis() >= deadline)) {
+                timedOut = !session.isBroken();
+                log.warn(timedOut
+                        ? "⏳ Tempo do ciclo esgotado, arquivos restantes ficam para o próximo ciclo"
+                        : "🔌 Conexão FTP perdida, arquivos restantes ficam para o próximo ciclo");
+                stopped = true;
             }
-        }catch (IOException ioException) {
-            log.error("Erro ao mover arquivo falho {} para a pasta de erro", filename, ioException);
-        } catch (Exception e) {
-            log.error("Erro no processamento do XML {}", filename, e);
-            handleFailedXmlFile(sourcePath, filename);
-        }
-    }
-
-    private void handleFailedXmlFile(String sourcePath, String filename) {
-        try {
-            String errorPath = sourcePath.replace("/NFe/", "/error/");
-            if (ftpService.moveFile(sourcePath, errorPath)) {
-                log.warn("XML {} movido para pasta de erro", filename);
-            } else {
-                log.error("Falha ao mover XML {} para pasta de erro", filename);
+            if (stopped) {
+                unsettled.add(file);
+                if (timedOut) {
+                    notStarted.add(file);
+                }
+                continue;
+            }
+            log.info("🔄 Processando arquivo: {}", file);
+            if (!ingestionProcessor.process(source, file)) {
+                unsettled.add(file);
             }
-        } catch (IOException ioException) {
-            log.error("Erro ao mover arquivo falho {} para pasta de erro", filename, ioException);
-        }
-    }
-
-    @PostConstruct
-    public void debugFtpOnStartup() {
-        log.info("=== DEBUG INICIAL DO FTP ===");
-        try {
-            ftpService.debugFtpDirectory("/Ftp/nfs/NFE");
-
-            // Também testa caminhos alternativos
-            ftpService.debugFtpDirectory("/Ftp");
-            ftpService.debugFtpDirectory("/nfs");
-
-        } catch (IOException e) {
-            log.error("Erro no debug FTP", e);
         }
+        return unsettled;
     }
 
-    @PostConstruct
-    public void testListFiles() {
-        log.info("=== TESTE MANUAL DO listFiles ===");
-        try {
-            List<String> files = ftpService.listFiles("/nfs");
-            log.info("🎯 RESULTADO DO TESTE - Arquivos encontrados: {}", files);
-        } catch (IOException e) {
-            log.error("Erro no teste", e);
+    /**
+     * Remove os marcadores .done/.ok de XMLs já arquivados em ciclos anteriores.
+     */
+    private void deleteMarkers(FtpSession session, List<String> markers) {
+        for (String marker : markers) {
+            try {
+                if (!session.deleteFile(xmlsDir + "/" + marker)) {
+                    log.warn("Não foi possível remover o marcador {}", marker);
+                }
+            } catch (IOException e) {
+                log.warn("Erro ao remover o marcador {}", marker, e);
+                return;
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package financeiro.nf.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Timers e contadores de cada etapa do processamento, publicados em {@code /actuator/prometheus}:
+ * <ul>
+ *     <li>{@code nf.ftp.connect} (connect + login, por {@code outcome}), {@code nf.ftp.list},
+ *     {@code nf.ftp.download} e {@code nf.ftp.download.bytes}, {@code nf.ftp.download.resumes}
+ *     (transferências do spool retomadas com REST), {@code nf.ftp.move} (por {@code target});</li>
+ *     <li>{@code nf.xml.parse};</li>
+ *     <li>{@code nf.db.dedupe} (consulta de duplicidade que foi ao banco) e {@code nf.db.insert}
+ *     (por {@code mode}: merge ou jpa);</li>
+ *     <li>{@code nf.files.processed} e {@code nf.files.failed} (por {@code cause}), e
+ *     {@code nf.files.latency}, do início do arquivo no ciclo até ele sair da origem;</li>
+ *     <li>{@code nf.retries} (por {@code target}: FTP ou banco), novas tentativas após falha transitória;</li>
+ *     <li>{@code nf.files.retry} (por {@code outcome}), arquivos com falha deixados na origem para nova
+ *     tentativa ({@code deferred}) ou enviados para erro ao fim das tentativas ({@code exhausted}).</li>
+ * </ul>
+ * Os gauges (backlog, pool FTP, commits/h) ficam no {@code MetricsConfig}.
+ */
+@Component
+public class ProcessingMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer ftpList;
+    private final Timer ftpDownload;
+    private final DistributionSummary ftpDownloadBytes;
+    private final Counter ftpDownloadResumes;
+    private final Timer parse;
+    private final Timer dedupeQuery;
+    private final Counter filesProcessed;
+    private final Timer fileLatency;
+
+    public ProcessingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.ftpList = Timer.builder("nf.ftp.list")
+                .description("Listagem do diretório de entrada")
+                .register(registry);
+        this.ftpDownload = Timer.builder("nf.ftp.download")
+                .description("Transferência de um arquivo, da abertura do canal de dados ao fim do RETR")
+                .register(registry);
+        this.ftpDownloadBytes = DistributionSummary.builder("nf.ftp.download.bytes")
+                .baseUnit("bytes")
+                .description("Tamanho dos arquivos baixados")
+                .register(registry);
+        this.ftpDownloadResumes = Counter.builder("nf.ftp.download.resumes")
+                .description("Transferências interrompidas retomadas do ponto em que pararam")
+                .register(registry);
+        this.parse = Timer.builder("nf.xml.parse")
+                .description("Parse e extração da nota")
+                .register(registry);
+        this.dedupeQuery = Timer.builder("nf.db.dedupe")
+                .description("Consulta de duplicidade no banco (não conta os acertos do índice em memória)")
+                .register(registry);
+        this.filesProcessed = Counter.builder("nf.files.processed")
+                .description("Arquivos gravados e movidos para processados")
+                .register(registry);
+        this.fileLatency = Timer.builder("nf.files.latency")
+                .description("Tempo de cada arquivo, da entrada no ciclo até o move para processados ou erro")
+                .register(registry);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public Timer ftpConnect(boolean success) {
+        return Timer.builder("nf.ftp.connect")
+                .description("Abertura de sessão FTP (connect + login)")
+                .tag("outcome", success ? "success" : "failure")
+                .register(registry);
+    }
+
+    public Timer ftpList() {
+        return ftpList;
+    }
+
+    public Timer ftpDownload() {
+        return ftpDownload;
+    }
+
+    public DistributionSummary ftpDownloadBytes() {
+        return ftpDownloadBytes;
+    }
+
+    public void ftpDownloadResumed() {
+        ftpDownloadResumes.increment();
+    }
+
+    public Timer ftpMove(String target) {
+        return Timer.builder("nf.ftp.move")
+                .description("Rename para a pasta de destino, incluindo MKD das partições novas")
+                .tag("target", target)
+                .register(registry);
+    }
+
+    public Timer parse() {
+        return parse;
+    }
+
+    public Timer dedupeQuery() {
+        return dedupeQuery;
+    }
+
+    public Timer insert(String mode) {
+        return Timer.builder("nf.db.insert")
+                .description("Gravação de uma nota ou de um chunk")
+                .tag("mode", mode)
+                .register(registry);
+    }
+
+    public Timer fileLatency() {
+        return fileLatency;
+    }
+
+    public void retry(String target) {
+        Counter.builder("nf.retries")
+                .description("Novas tentativas após falha transitória")
+                .tag("target", target)
+                .register(registry)
+                .increment();
+    }
+
+    public void fileRetry(String outcome) {
+        Counter.builder("nf.files.retry")
+                .description("Arquivos com falha deixados na origem para nova tentativa ou desistidos")
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    public void fileProcessed() {
+        filesProcessed.increment();
+    }
+
+    public void fileFailed(Throwable failure) {
+        Counter.builder("nf.files.failed")
+                .description("Arquivos enviados para a pasta de erro")
+                .tag("cause", failureCause(failure))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Causa de uma falha, pela primeira exceção reconhecida na cadeia:
+     * duplicate, parse, database, io ou other.
+     */
+    static String failureCause(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof DuplicateNfException) {
+                return "duplicate";
+            }
+            if (t instanceof XMLStreamException || t instanceof SAXException) {
+                return "parse";
+            }
+            if (t instanceof DataAccessException || t instanceof SQLException) {
+                return "database";
+            }
+        }
+        return failure instanceof IOException ? "io" : "other";
+    }
+}
@@ -0,0 +1,138 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Verifica FTP e banco depois da subida, numa thread própria, no lugar das sondas síncronas que
+ * rodavam na criação dos beans e seguravam o startup pelos timeouts de conexão.
+ * Enquanto algum dos dois não responde, a verificação é repetida a cada
+ * {@code file.processing.readiness-check-interval} ms e o estado fica em {@link State#WAITING};
+ * quem depende deles (o {@link AdaptiveScheduler}) registra-se em {@link #onReady}.
+ */
+@Component
+@Slf4j
+public class ReadinessService {
+
+    public enum State {
+        STARTING, WAITING, READY
+    }
+
+    private final FtpService ftpService;
+    private final DataSource dataSource;
+    private final ProcessingConfig processingConfig;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    @Value("${ftp.xmls-dir:/nfs/NFe}")
+    private String xmlsDir;
+
+    private volatile State state = State.STARTING;
+    private volatile boolean ftpReachable;
+    private volatile boolean databaseReachable;
+    private volatile String lastError;
+
+    public ReadinessService(FtpService ftpService, DataSource dataSource, ProcessingConfig processingConfig) {
+        this.ftpService = ftpService;
+        this.dataSource = dataSource;
+        this.processingConfig = processingConfig;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void checkAsync() {
+        Thread checker = new Thread(this::awaitDependencies, "nf-readiness");
+        checker.setDaemon(true);
+        checker.start();
+    }
+
+    /**
+     * Executa {@code action} quando FTP e banco estiverem acessíveis (na hora, se já estiverem).
+     */
+    public void onReady(Runnable action) {
+        ready.thenRun(action);
+    }
+
+    void awaitDependencies() {
+        long interval = Math.max(1000, processingConfig.getReadinessCheckInterval());
+        while (!check()) {
+            state = State.WAITING;
+            log.warn("⏳ Aguardando dependências (FTP: {}, banco: {}), nova verificação em {} ms: {}",
+                    status(ftpReachable), status(databaseReachable), interval, lastError);
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        state = State.READY;
+        log.info("✅ FTP e banco acessíveis, processamento liberado");
+        ready.complete(null);
+    }
+
+    /**
+     * Uma rodada de verificação; só repete o que ainda não respondeu.
+     */
+    boolean check() {
+        if (!databaseReachable) {
+            databaseReachable = checkDatabase();
+        }
+        if (!ftpReachable) {
+            ftpReachable = checkFtp();
+        }
+        return ftpReachable && databaseReachable;
+    }
+
+    private boolean checkDatabase() {
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.isValid(5);
+        } catch (Exception e) {
+            lastError = "banco: " + e.getMessage();
+            return false;
+        }
+    }
+
+    private boolean checkFtp() {
+        try (FtpSession session = ftpService.openSession()) {
+            if (!session.directoryExists(xmlsDir)) {
+                // O servidor responde; o ciclo registra o erro da listagem até a pasta ser criada
+                log.error("❌ Diretório de XMLs NÃO existe no FTP: {}", xmlsDir);
+            }
+            return true;
+        } catch (Exception e) {
+            lastError = "FTP: " + e.getMessage();
+            return false;
+        }
+    }
+
+    private static String status(boolean reachable) {
+        return reachable ? "ok" : "sem resposta";
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public boolean isFtpReachable() {
+        return ftpReachable;
+    }
+
+    public boolean isDatabaseReachable() {
+        return databaseReachable;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,266 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import financeiro.nf.config.ProcessingConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.Clock;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Novas tentativas e circuitos para o FTP ({@code ftp.retry-*}, {@code ftp.circuit-*}) e o banco
+ * ({@code file.processing.db-*}). Só falhas transitórias são repetidas (conexão recusada ou caída,
+ * timeout, resposta FTP 4xx, indisponibilidade do banco), com espera exponencial a partir do
+ * {@code retry-delay} e jitter; erros definitivos (arquivo inexistente, violação de integridade)
+ * sobem na hora. Com o circuito aberto as chamadas falham sem tocar na dependência.
+ */
+@Component
+@Slf4j
+public class ResilienceService {
+
+    // Teto da espera exponencial, em múltiplos do retry-delay
+    private static final int MAX_BACKOFF_MULTIPLIER = 8;
+
+    private final CircuitBreaker ftpCircuit;
+    private final CircuitBreaker databaseCircuit;
+    private final int ftpRetries;
+    private final long ftpRetryDelay;
+    private final int databaseRetries;
+    private final long databaseRetryDelay;
+    private final ProcessingMetrics metrics;
+    private final Sleeper sleeper;
+
+    @Autowired
+    public ResilienceService(FtpConfig ftpConfig, ProcessingConfig processingConfig, ProcessingMetrics metrics) {
+        this(ftpConfig, processingConfig, metrics, Clock.systemUTC(), Thread::sleep);
+    }
+
+    ResilienceService(FtpConfig ftpConfig, ProcessingConfig processingConfig, ProcessingMetrics metrics,
+                      Clock clock, Sleeper sleeper) {
+        this.ftpCircuit = new CircuitBreaker("ftp", ftpConfig.getCircuitFailureThreshold(),
+                ftpConfig.getCircuitOpenDuration(), ftpConfig.getCircuitProbeTimeout(), clock);
+        this.databaseCircuit = new CircuitBreaker("database", processingConfig.getDbCircuitFailureThreshold(),
+                processingConfig.getDbCircuitOpenDuration(), processingConfig.getDbCircuitProbeTimeout(), clock);
+        this.ftpRetries = Math.max(0, ftpConfig.getRetryCount());
+        this.ftpRetryDelay = ftpConfig.getRetryDelay();
+        this.databaseRetries = Math.max(0, processingConfig.getDbRetryCount());
+        this.databaseRetryDelay = processingConfig.getDbRetryDelay();
+        this.metrics = metrics;
+        this.sleeper = sleeper;
+    }
+
+    @FunctionalInterface
+    public interface FtpCall<T> {
+        T call() throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    /**
+     * Circuito aberto: a chamada foi recusada sem acessar a dependência.
+     */
+    public static class CircuitOpenException extends IOException {
+        CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    public CircuitBreaker getFtpCircuit() {
+        return ftpCircuit;
+    }
+
+    public CircuitBreaker getDatabaseCircuit() {
+        return databaseCircuit;
+    }
+
+    /**
+     * Chamada ao FTP que abre a própria conexão (ex.: empréstimo de sessão do pool): qualquer falha
+     * de conexão é repetida.
+     */
+    public <T> T callFtp(String operation, FtpCall<T> call) throws IOException {
+        return callFtp(operation, call, () -> true);
+    }
+
+    /**
+     * Chamada sobre uma sessão já aberta: só é repetida enquanto a sessão continuar utilizável,
+     * ou seja, para respostas 4xx do servidor.
+     */
+    public <T> T callFtp(String operation, FtpSession session, FtpCall<T> call) throws IOException {
+        return callFtp(operation, call, () -> !session.isBroken());
+    }
+
+    private <T> T callFtp(String operation, FtpCall<T> call, BooleanSupplier retryable) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            if (!ftpCircuit.tryAcquire()) {
+                throw new CircuitOpenException("Circuito do FTP aberto, " + operation + " não executado");
+            }
+            // Sem resultado registrado (pool esgotado, RuntimeException, Error) a reserva é só liberada
+            boolean recorded = false;
+            try {
+                T result = call.call();
+                ftpCircuit.recordSuccess();
+                recorded = true;
+                return result;
+            } catch (IOException e) {
+                if (!isRetryableFtp(e)) {
+                    if (reachedServer(e)) {
+                        // O servidor respondeu: a falha é da operação, não da conexão
+                        ftpCircuit.recordSuccess();
+                        recorded = true;
+                    }
+                    throw e;
+                }
+                ftpCircuit.recordFailure();
+                recorded = true;
+                if (attempt >= ftpRetries || !retryable.getAsBoolean() || ftpCircuit.isOpen()) {
+                    throw e;
+                }
+                try {
+                    backoff("FTP", operation, attempt, ftpRetryDelay, e);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(operation + " interrompido");
+                }
+            } finally {
+                if (!recorded) {
+                    ftpCircuit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Chamada ao banco (repositório ou writer, cada tentativa na sua própria transação).
+     *
+     * @throws TransientDataAccessResourceException com o circuito do banco aberto
+     */
+    public <T> T callDatabase(String operation, Supplier<T> call) {
+        for (int attempt = 0; ; attempt++) {
+            if (!databaseCircuit.tryAcquire()) {
+                throw new TransientDataAccessResourceException("Circuito do banco aberto, " + operation
+                        + " não executado");
+            }
+            boolean recorded = false;
+            try {
+                T result = call.get();
+                databaseCircuit.recordSuccess();
+                recorded = true;
+                return result;
+            } catch (RuntimeException e) {
+                if (!isTransientDatabase(e)) {
+                    databaseCircuit.recordSuccess();
+                    recorded = true;
+                    throw e;
+                }
+                databaseCircuit.recordFailure();
+                recorded = true;
+                if (attempt >= databaseRetries || databaseCircuit.isOpen()) {
+                    throw e;
+                }
+                try {
+                    backoff("banco", operation, attempt, databaseRetryDelay, e);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } finally {
+                if (!recorded) {
+                    databaseCircuit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Algum circuito aberto: não adianta iniciar um ciclo.
+     */
+    public boolean isAnyCircuitOpen() {
+        return ftpCircuit.isOpen() || databaseCircuit.isOpen();
+    }
+
+    /**
+     * Falha que tende a passar sozinha (rede, servidor FTP ocupado, banco fora do ar): o arquivo
+     * deve ficar na origem para o próximo ciclo em vez de ir para a pasta de erro.
+     */
+    public static boolean isTransient(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof CircuitOpenException
+                    || t instanceof SocketException
+                    || t instanceof SocketTimeoutException
+                    || t instanceof FTPConnectionClosedException
+                    || (t instanceof FtpService.FtpReplyException reply && reply.isTransient())
+                    || isTransientDatabaseCause(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Falhas de FTP repetíveis: respostas 4xx e erros de conexão. Respostas 5xx são definitivas
+     * e a espera por uma sessão do pool esgotado não é falha do servidor.
+     */
+    static boolean isRetryableFtp(IOException failure) {
+        if (failure instanceof FtpService.FtpReplyException reply) {
+            return reply.isTransient();
+        }
+        return reachedServer(failure);
+    }
+
+    /**
+     * Falso para falhas que não chegaram ao servidor (circuito aberto, pool de sessões esgotado):
+     * não contam nem como sucesso nem como falha do circuito.
+     */
+    private static boolean reachedServer(IOException failure) {
+        return !(failure instanceof CircuitOpenException) && !(failure.getCause() instanceof NoSuchElementException);
+    }
+
+    static boolean isTransientDatabase(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (isTransientDatabaseCause(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTransientDatabaseCause(Throwable t) {
+        return t instanceof TransientDataAccessException
+                || t instanceof RecoverableDataAccessException
+                || t instanceof DataAccessResourceFailureException
+                || t instanceof CannotCreateTransactionException
+                || t instanceof SQLTransientException
+                || t instanceof SQLRecoverableException;
+    }
+
+    private void backoff(String target, String operation, int attempt, long baseDelay, Exception failure)
+            throws InterruptedException {
+        long ceiling = baseDelay * Math.min(1L << attempt, MAX_BACKOFF_MULTIPLIER);
+        // Metade fixa e metade aleatória, para as threads não tentarem de novo todas juntas
+        long wait = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        metrics.retry(target);
+        log.warn("🔁 {} ({}) falhou, nova tentativa {} em {} ms: {}", operation, target, attempt + 1, wait,
+                failure.getMessage());
+        sleeper.sleep(wait);
+    }
+}
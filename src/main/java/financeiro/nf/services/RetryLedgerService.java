@@ -0,0 +1,283 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.RetryConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Registro das falhas de processamento na tabela {@code WEBSERVICE.NF_XML_RETRY}
+ * ({@code file.retry.enabled}), para que um arquivo bom não vá para a pasta de erro só porque o
+ * banco ou o FTP estavam fora do ar.
+ * <p>
+ * Só arquivos com defeito definitivo (XML inválido, nota duplicada, violação de integridade) vão
+ * para a pasta de erro. Os demais ficam na origem e a linha do arquivo guarda as tentativas, a
+ * classe do último erro e a próxima tentativa, com espera exponencial a partir de
+ * {@code file.retry.base-delay} e jitter. Até lá o arquivo é ignorado pela listagem, e a cada
+ * ciclo voltam no máximo {@code file.retry.max-per-cycle} arquivos com falha anterior: depois de
+ * uma queda, a recuperação é automática e não inunda o ciclo seguinte. Falhas que não são de
+ * indisponibilidade nem definitivas (erro desconhecido) mandam o arquivo para a pasta de erro na
+ * {@code file.retry.max-attempts}-ésima vez.
+ * <p>
+ * Como no {@link FileClaimService}, as datas usam o relógio do banco ({@code SYSTIMESTAMP}).
+ */
+@Service
+@Slf4j
+public class RetryLedgerService {
+
+    static final String SELECT_SQL = "SELECT DS_ARQUIVO,"
+            + " CASE WHEN DT_PROXIMA_TENTATIVA > SYSTIMESTAMP THEN 1 ELSE 0 END AS IE_AGUARDANDO"
+            + " FROM WEBSERVICE.NF_XML_RETRY WHERE DS_ORIGEM = ?";
+
+    static final String ATTEMPTS_SQL = "SELECT QT_TENTATIVAS FROM WEBSERVICE.NF_XML_RETRY WHERE DS_ARQUIVO = ?";
+
+    static final String RECORD_SQL = "MERGE INTO WEBSERVICE.NF_XML_RETRY r"
+            + " USING (SELECT CAST(? AS VARCHAR2(1000)) AS DS_ARQUIVO FROM DUAL) s"
+            + " ON (r.DS_ARQUIVO = s.DS_ARQUIVO)"
+            + " WHEN MATCHED THEN UPDATE SET r.QT_TENTATIVAS = ?, r.NM_CLASSE_ERRO = ?, r.DS_ERRO = ?,"
+            + " r.DT_ULTIMA_FALHA = SYSTIMESTAMP,"
+            + " r.DT_PROXIMA_TENTATIVA = SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND')"
+            + " WHEN NOT MATCHED THEN INSERT (DS_ARQUIVO, DS_ORIGEM, QT_TENTATIVAS, NM_CLASSE_ERRO, DS_ERRO,"
+            + " DT_ULTIMA_FALHA, DT_PROXIMA_TENTATIVA)"
+            + " VALUES (s.DS_ARQUIVO, ?, ?, ?, ?, SYSTIMESTAMP, SYSTIMESTAMP + NUMTODSINTERVAL(?, 'SECOND'))";
+
+    static final String DELETE_SQL = "DELETE FROM WEBSERVICE.NF_XML_RETRY WHERE DS_ARQUIVO = ?";
+
+    static final String PURGE_SQL = "DELETE FROM WEBSERVICE.NF_XML_RETRY"
+            + " WHERE DT_ULTIMA_FALHA < SYSTIMESTAMP - NUMTODSINTERVAL(?, 'SECOND')";
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final long PURGE_INTERVAL = 3600000;
+
+    private final RetryConfig retryConfig;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ProcessingMetrics metrics;
+
+    // Arquivos com linha no registro (chave → próxima tentativa em epoch ms, 0 se lida do banco),
+    // para que o sucesso dos demais não custe um DELETE
+    private final Map<String, Long> tracked = new ConcurrentHashMap<>();
+    private volatile int waiting = 0;
+    private volatile long lastPurge = 0;
+
+    public RetryLedgerService(RetryConfig retryConfig, JdbcTemplate jdbcTemplate,
+                              TransactionTemplate transactionTemplate, ProcessingMetrics metrics) {
+        this.retryConfig = retryConfig;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param eligible arquivos que entram no ciclo
+     * @param waiting  arquivos com falha anterior cuja vez ainda não chegou
+     */
+    public record Selection(List<String> eligible, List<String> waiting) {
+    }
+
+    private record Attempt(int number, long delay) {
+    }
+
+    public boolean isEnabled() {
+        return retryConfig.isEnabled();
+    }
+
+    /**
+     * Arquivos deixados de fora do último ciclo à espera de nova tentativa.
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * Separa da listagem de {@code origin} os arquivos que ainda esperam a próxima tentativa e
+     * os que passam do limite de {@code file.retry.max-per-cycle}.
+     */
+    public Selection select(String origin, List<String> filenames) {
+        if (!isEnabled() || filenames.isEmpty()) {
+            return new Selection(filenames, List.of());
+        }
+        Map<String, Boolean> entries = new HashMap<>();
+        try {
+            purgeExpired();
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(SELECT_SQL,
+                    rs -> {
+                        entries.put(rs.getString(1), rs.getInt(2) == 1);
+                    }, origin));
+        } catch (DataAccessException e) {
+            log.warn("⚠️ Registro de novas tentativas indisponível, todos os {} arquivos entram no ciclo: {}",
+                    filenames.size(), e.getMessage());
+            return new Selection(filenames, List.of());
+        }
+
+        int limit = retryConfig.getMaxPerCycle() <= 0 ? Integer.MAX_VALUE : retryConfig.getMaxPerCycle();
+        List<String> eligible = new ArrayList<>(filenames.size());
+        List<String> notYet = new ArrayList<>();
+        int retries = 0;
+        for (String filename : filenames) {
+            String key = key(origin, filename);
+            Boolean pending = entries.get(key);
+            if (pending == null) {
+                eligible.add(filename);
+                continue;
+            }
+            tracked.putIfAbsent(key, 0L);
+            if (pending || retries >= limit) {
+                notYet.add(filename);
+            } else {
+                retries++;
+                eligible.add(filename);
+            }
+        }
+        waiting = notYet.size();
+        if (retries > 0 || !notYet.isEmpty()) {
+            log.info("🔁 {} arquivos com falha anterior voltam neste ciclo, {} aguardam a próxima tentativa",
+                    retries, notYet.size());
+        }
+        return new Selection(eligible, notYet);
+    }
+
+    /**
+     * Registra a falha de um arquivo e decide o seu destino. Com o registro desabilitado, só
+     * falhas transitórias ({@link ResilienceService#isTransient}) deixam o arquivo na origem.
+     *
+     * @return verdadeiro se o arquivo deve ficar na origem para nova tentativa, falso se deve ir
+     * para a pasta de erro
+     */
+    public boolean shouldRetry(String origin, String filename, Throwable failure) {
+        boolean transientFailure = ResilienceService.isTransient(failure);
+        if (!isEnabled()) {
+            return transientFailure;
+        }
+        if (!transientFailure && isPermanent(failure)) {
+            return false;
+        }
+
+        String key = key(origin, filename);
+        Attempt attempt;
+        try {
+            attempt = transactionTemplate.execute(status -> record(origin, key, failure));
+        } catch (DataAccessException e) {
+            // Sem o registro o arquivo fica na origem, como numa falha transitória
+            log.warn("⚠️ Falha de {} não registrada, o arquivo fica na origem: {}", filename, e.getMessage());
+            return true;
+        }
+        tracked.put(key, System.currentTimeMillis() + attempt.delay());
+
+        if (!transientFailure && attempt.number() >= retryConfig.getMaxAttempts()) {
+            metrics.fileRetry("exhausted");
+            log.error("❌ XML {} falhou {} vezes, desistindo das novas tentativas", filename, attempt.number());
+            return false;
+        }
+        metrics.fileRetry("deferred");
+        log.warn("⏸️ XML {} fica na origem (falha {}: {}), nova tentativa em {} s", filename, attempt.number(),
+                failure.getMessage(), attempt.delay() / 1000);
+        return true;
+    }
+
+    /**
+     * Tempo até a próxima tentativa registrada pelo {@link #shouldRetry} deste nó, ou
+     * {@code fallback} se não há nenhuma.
+     */
+    public long delayUntilRetry(String origin, String filename, long fallback) {
+        Long retryAt = tracked.get(key(origin, filename));
+        return retryAt == null || retryAt == 0 ? fallback : Math.max(0, retryAt - System.currentTimeMillis());
+    }
+
+    /**
+     * O arquivo saiu da origem (processados ou erro): apaga a sua linha, se houver.
+     */
+    public void settled(String origin, String filename) {
+        String key = key(origin, filename);
+        if (tracked.remove(key) == null) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update(DELETE_SQL, key));
+        } catch (DataAccessException e) {
+            log.warn("⚠️ Não foi possível remover {} do registro de novas tentativas, ele será apagado em {}s",
+                    filename, retryConfig.getExpiredRetention(), e);
+        }
+    }
+
+    /**
+     * Defeitos do próprio arquivo, que nenhuma nova tentativa resolve.
+     */
+    static boolean isPermanent(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof DuplicateNfException
+                    || t instanceof XMLStreamException
+                    || t instanceof SAXException
+                    || t instanceof DataIntegrityViolationException
+                    || (t instanceof FtpService.FtpReplyException reply && !reply.isTransient())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Attempt record(String origin, String key, Throwable failure) {
+        List<Integer> previous = jdbcTemplate.queryForList(ATTEMPTS_SQL, Integer.class, key);
+        int number = previous.isEmpty() ? 1 : previous.get(0) + 1;
+        long delay = backoff(number);
+        double seconds = delay / 1000.0;
+        String errorClass = rootCause(failure).getClass().getName();
+        String message = truncate(String.valueOf(failure.getMessage()));
+
+        jdbcTemplate.update(RECORD_SQL, key, number, errorClass, message, seconds,
+                origin, number, errorClass, message, seconds);
+        return new Attempt(number, delay);
+    }
+
+    /**
+     * Espera exponencial até {@code max-delay}, metade fixa e metade aleatória para os arquivos
+     * de uma mesma queda não voltarem todos juntos.
+     */
+    private long backoff(int attempt) {
+        long base = Math.max(1, retryConfig.getBaseDelay());
+        long max = Math.max(base, retryConfig.getMaxDelay());
+        long ceiling = attempt > 31 ? max : Math.min(max, base << (attempt - 1));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        if (now - lastPurge < PURGE_INTERVAL) {
+            return;
+        }
+        lastPurge = now;
+        Integer purged = transactionTemplate.execute(status ->
+                jdbcTemplate.update(PURGE_SQL, retryConfig.getExpiredRetention()));
+        if (purged != null && purged > 0) {
+            log.info("🧹 {} registros de novas tentativas sem falha recente removidos", purged);
+        }
+    }
+
+    private static Throwable rootCause(Throwable failure) {
+        Throwable root = failure;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root;
+    }
+
+    private static String truncate(String message) {
+        return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    private static String key(String origin, String filename) {
+        return origin + "/" + filename;
+    }
+}
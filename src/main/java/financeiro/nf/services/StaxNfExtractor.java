@@ -0,0 +1,203 @@
+package financeiro.nf.services;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extrator StAX: lê os campos mapeados de cada {@code NOTA} (NFS-e) ou, sem nenhuma, de cada
+ * {@code Reg20Item} (NFe) em uma única passada, sem montar a árvore DOM. Arquivos em lote
+ * (um mês inteiro exportado pela prefeitura) rendem um registro por nota/item, na ordem do arquivo.
+ * Reproduz a semântica de {@code XmlProcessingService.getElementText}: primeiro descendente com o
+ * nome sem prefixo e, na falta dele, o primeiro descendente no namespace {@code NFe}.
+ */
+class StaxNfExtractor {
+
+    static final String NFE_NAMESPACE = "NFe";
+
+    static final Set<String> NFSE_FIELDS = Set.of(
+            "NUMERO", "SERIE", "CNPJ", "TOM_CPF_CNPJ", "DT_COMPETENCIA", "VL_SERVICO", "VL_LIQUIDO_NFSE",
+            "VL_DESCONTO_INCONDICIONADO", "DISCRIMINACAO", "PRE_RAZAO_SOCIAL", "TOM_RAZAO_SOCIAL");
+
+    static final Set<String> NFE_FIELDS = Set.of(
+            "NumNf", "SerNf", "CpfCnpjPre", "CpfCnpjTom", "DtEmiNf", "VlNFS");
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    enum Format { NFSE, NFE, UNKNOWN }
+
+    record Result(Format format, List<Map<String, String>> records, String encoding) {
+    }
+
+    Result extract(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(inputStream);
+        try {
+            List<Map<String, String>> notas = new ArrayList<>();
+            List<Map<String, String>> reg20Items = new ArrayList<>();
+            Scope nota = null;
+            Scope reg20Item = null;
+            int depth = 0;
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        depth++;
+                        String localName = reader.getLocalName();
+                        String prefix = reader.getPrefix();
+                        boolean unprefixed = prefix == null || prefix.isEmpty();
+                        boolean nfeNamespace = NFE_NAMESPACE.equals(reader.getNamespaceURI());
+
+                        if (nota != null) {
+                            nota.onStart(localName, unprefixed, nfeNamespace, depth);
+                        }
+                        if (reg20Item != null) {
+                            reg20Item.onStart(localName, unprefixed, nfeNamespace, depth);
+                        }
+
+                        if (nota == null && unprefixed && "NOTA".equals(localName)) {
+                            nota = new Scope(NFSE_FIELDS, depth);
+                        } else if (reg20Item == null && notas.isEmpty() && nfeNamespace
+                                && "Reg20Item".equals(localName)) {
+                            reg20Item = new Scope(NFE_FIELDS, depth);
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                        if (nota != null) {
+                            nota.onText(reader.getText());
+                        }
+                        if (reg20Item != null) {
+                            reg20Item.onText(reader.getText());
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (nota != null && nota.onEnd(depth)) {
+                            notas.add(nota.values());
+                            nota = null;
+                            // NFS-e tem precedência sobre NFe: os Reg20Item não são mais necessários
+                            reg20Items.clear();
+                            reg20Item = null;
+                        }
+                        if (reg20Item != null && reg20Item.onEnd(depth)) {
+                            reg20Items.add(reg20Item.values());
+                            reg20Item = null;
+                        }
+                        depth--;
+                    }
+                    default -> {
+                    }
+                }
+            }
+
+            if (!notas.isEmpty()) {
+                return new Result(Format.NFSE, notas, encodingOf(reader));
+            }
+            if (!reg20Items.isEmpty()) {
+                return new Result(Format.NFE, reg20Items, encodingOf(reader));
+            }
+            return new Result(Format.UNKNOWN, List.of(), encodingOf(reader));
+
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String encodingOf(XMLStreamReader reader) {
+        String declared = reader.getCharacterEncodingScheme();
+        return declared != null ? declared : reader.getEncoding();
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Subárvore de um {@code NOTA}/{@code Reg20Item}: acumula o texto (como {@code getTextContent})
+     * da primeira ocorrência de cada campo.
+     */
+    private static class Scope {
+        private final Set<String> fieldNames;
+        private final int depth;
+        private final Map<String, String> unprefixedValues = new HashMap<>();
+        private final Map<String, String> namespaceValues = new HashMap<>();
+        private final List<Capture> active = new ArrayList<>();
+
+        Scope(Set<String> fieldNames, int depth) {
+            this.fieldNames = fieldNames;
+            this.depth = depth;
+        }
+
+        void onStart(String localName, boolean unprefixed, boolean nfeNamespace, int elementDepth) {
+            if (!fieldNames.contains(localName)) {
+                return;
+            }
+            if (unprefixed && !unprefixedValues.containsKey(localName) && !isCapturing(localName, true)) {
+                active.add(new Capture(localName, true, elementDepth));
+            }
+            if (nfeNamespace && !namespaceValues.containsKey(localName) && !isCapturing(localName, false)) {
+                active.add(new Capture(localName, false, elementDepth));
+            }
+        }
+
+        void onText(String text) {
+            for (Capture capture : active) {
+                capture.text.append(text);
+            }
+        }
+
+        /**
+         * @return se o elemento encerrado é o próprio {@code NOTA}/{@code Reg20Item}
+         */
+        boolean onEnd(int elementDepth) {
+            Iterator<Capture> iterator = active.iterator();
+            while (iterator.hasNext()) {
+                Capture capture = iterator.next();
+                if (capture.depth == elementDepth) {
+                    (capture.unprefixed ? unprefixedValues : namespaceValues)
+                            .putIfAbsent(capture.fieldName, capture.text.toString());
+                    iterator.remove();
+                }
+            }
+            return elementDepth == depth;
+        }
+
+        Map<String, String> values() {
+            Map<String, String> values = new HashMap<>(namespaceValues);
+            values.putAll(unprefixedValues);
+            return values;
+        }
+
+        private boolean isCapturing(String fieldName, boolean unprefixed) {
+            for (Capture capture : active) {
+                if (capture.unprefixed == unprefixed && capture.fieldName.equals(fieldName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Capture {
+        private final String fieldName;
+        private final boolean unprefixed;
+        private final int depth;
+        private final StringBuilder text = new StringBuilder();
+
+        Capture(String fieldName, boolean unprefixed, int depth) {
+            this.fieldName = fieldName;
+            this.unprefixed = unprefixed;
+            this.depth = depth;
+        }
+    }
+}
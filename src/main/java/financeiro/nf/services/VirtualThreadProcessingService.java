@@ -0,0 +1,190 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alternativa ao {@link XmlPipelineService}: cada arquivo percorre download → parse → persistência
+ * → move na sua própria virtual thread. O trabalho por arquivo é quase todo I/O bloqueante, e a
+ * virtual thread bloqueada libera a thread de plataforma, então milhares de arquivos podem estar
+ * em andamento sem dimensionar workers por estágio.
+ * <p>
+ * O que limita a concorrência são os recursos externos: um semáforo para as sessões FTP
+ * (no máximo {@code ftp.pool-max-total}) e outro para as conexões do banco (no máximo o
+ * {@code maximum-pool-size} do Hikari), de modo que as threads esperam a vez no semáforo em vez
+ * de estourar o timeout dos pools. A sessão FTP é devolvida logo após o download e pega de novo
+ * para o move; nenhum arquivo segura sessão e conexão ao mesmo tempo.
+ * <p>
+ * Um terceiro semáforo ({@code file.processing.max-in-flight-files}) limita os arquivos entre o
+ * início do download e o fim da persistência, cujo conteúdo e notas estão em memória; os demais
+ * esperam antes de baixar. Com o spool, a espera por espaço em disco não segura vaga de sessão.
+ */
+@Service
+@Slf4j
+public class VirtualThreadProcessingService {
+
+    private final FtpService ftpService;
+    private final XmlProcessingService xmlProcessingService;
+    private final ArchiveLayout archiveLayout;
+    private final FileSpool fileSpool;
+    private final RetryLedgerService retryLedger;
+    private final ProcessingMetrics metrics;
+    private final Semaphore ftpSessions;
+    private final Semaphore dbConnections;
+    private final Semaphore inFlightFiles;
+
+    public VirtualThreadProcessingService(FtpService ftpService, XmlProcessingService xmlProcessingService,
+                                          ArchiveLayout archiveLayout, FileSpool fileSpool,
+                                          RetryLedgerService retryLedger, ProcessingMetrics metrics,
+                                          ProcessingConfig processingConfig, FtpConfig ftpConfig,
+                                          @Value("${spring.datasource.hikari.maximum-pool-size:10}") int dbPoolSize) {
+        this.ftpService = ftpService;
+        this.xmlProcessingService = xmlProcessingService;
+        this.archiveLayout = archiveLayout;
+        this.fileSpool = fileSpool;
+        this.retryLedger = retryLedger;
+        this.metrics = metrics;
+        this.ftpSessions = new Semaphore(limit(processingConfig.getMaxFtpSessions(), ftpConfig.getPoolMaxTotal()), true);
+        this.dbConnections = new Semaphore(limit(processingConfig.getMaxDbConnections(), dbPoolSize), true);
+        this.inFlightFiles = new Semaphore(Math.max(1, processingConfig.getMaxInFlightFiles()), true);
+    }
+
+    /**
+     * Processa os arquivos de {@code sourceDir}, bloqueando até que todos terminem. Arquivos cujo
+     * download ainda não começou em {@code deadline} (epoch ms) ficam para o próximo ciclo.
+     */
+    public XmlPipelineService.PipelineResult run(List<String> files, String sourceDir, long deadline) {
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        Set<String> settled = ConcurrentHashMap.newKeySet();
+        Set<String> notStarted = ConcurrentHashMap.newKeySet();
+
+        log.info("🧵 Processando {} arquivos em virtual threads (sessões FTP={}, conexões={}, em andamento={})",
+                files.size(), ftpSessions.availablePermits(), dbConnections.availablePermits(),
+                inFlightFiles.availablePermits());
+
+        // O close do executor espera todas as threads terminarem
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("nf-vthread-", 1).factory())) {
+            for (String file : files) {
+                executor.execute(() -> {
+                    try {
+                        if (processFile(file, sourceDir, deadline, processed, failed, notStarted)) {
+                            settled.add(file);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+
+        log.info("🏁 Virtual threads concluídas: {} processados, {} com erro", processed.get(), failed.get());
+        List<String> unsettled = files.stream().filter(file -> !settled.contains(file)).toList();
+        return new XmlPipelineService.PipelineResult(processed.get(), failed.get(), unsettled,
+                files.stream().filter(notStarted::contains).toList());
+    }
+
+    /**
+     * @return se o arquivo saiu da origem (para processados ou erro)
+     */
+    private boolean processFile(String filename, String sourceDir, long deadline, AtomicInteger processed,
+                                AtomicInteger failed, Set<String> notStarted) throws InterruptedException {
+        Timer.Sample sample = metrics.start();
+        String origin = FtpSessionSource.name(sourceDir);
+        Exception failure = null;
+        // Conteúdo e notas ficam em memória só até a persistência; o move não precisa deles
+        inFlightFiles.acquire();
+        try {
+            FileSpool.SpooledFile file = download(sourceDir + "/" + filename, deadline);
+            if (file == null) {
+                notStarted.add(filename);
+                return false;
+            }
+            List<NfXmlEntity> entities;
+            try (file; InputStream is = file.open()) {
+                entities = xmlProcessingService.parseXml(is, filename);
+            }
+            dbConnections.acquire();
+            try {
+                xmlProcessingService.persist(entities, filename);
+            } finally {
+                dbConnections.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (retryLedger.shouldRetry(origin, filename, e)) {
+                return false;
+            }
+            log.error("Erro no processamento do XML {}", filename, e);
+            failure = e;
+        } finally {
+            inFlightFiles.release();
+        }
+
+        ftpSessions.acquire();
+        try (FtpSession session = ftpService.openSession()) {
+            if (failure == null) {
+                archiveLayout.moveToProcessed(session, sourceDir, filename);
+                processed.incrementAndGet();
+                metrics.fileProcessed();
+                log.info("XML {} processado e movido com sucesso", filename);
+            } else {
+                archiveLayout.moveToError(session, sourceDir, filename);
+                failed.incrementAndGet();
+                metrics.fileFailed(failure);
+                log.warn("XML {} movido para pasta de erro", filename);
+            }
+            retryLedger.settled(origin, filename);
+            sample.stop(metrics.fileLatency());
+            return true;
+        } catch (IOException e) {
+            log.error("Falha ao mover XML {}", filename, e);
+            return false;
+        } finally {
+            ftpSessions.release();
+        }
+    }
+
+    /**
+     * @return o conteúdo do arquivo (no spool ou em memória), ou {@code null} se o ciclo já passou
+     * do {@code deadline}
+     */
+    private FileSpool.SpooledFile download(String path, long deadline) throws IOException, InterruptedException {
+        ftpSessions.acquire();
+        try {
+            // Verificado depois da espera no semáforo, que pode ter sido longa
+            if (System.currentTimeMillis() >= deadline) {
+                return null;
+            }
+            if (fileSpool.isEnabled()) {
+                return fileSpool.fetch(path, ftpSessions);
+            }
+            try (FtpSession session = ftpService.openSession();
+                 InputStream is = session.retrieveFile(path)) {
+                return FileSpool.SpooledFile.inMemory(is.readAllBytes());
+            }
+        } finally {
+            ftpSessions.release();
+        }
+    }
+
+    private static int limit(int configured, int poolSize) {
+        int max = Math.max(1, poolSize);
+        return configured <= 0 ? max : Math.min(configured, max);
+    }
+}
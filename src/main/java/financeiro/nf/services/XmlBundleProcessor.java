@@ -0,0 +1,216 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Pacotes de XMLs ({@code .zip} ou {@code .xml.gz}) baixados uma única vez: cada entrada é lida
+ * direto do stream de download, sem extrair em disco, e as notas são gravadas em chunks de
+ * {@code file.processing.commit-chunk-size} com o resultado de cada entrada.
+ * <p>
+ * Um erro de leitura do próprio pacote (conexão caída, ZIP corrompido) interrompe o pacote
+ * inteiro com exceção; as entradas já gravadas voltam como duplicadas na próxima tentativa.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class XmlBundleProcessor {
+
+    // Tamanho da coluna DS_LINK_XML
+    private static final int LINK_MAX_LENGTH = 255;
+
+    private final XmlProcessingService xmlProcessingService;
+    private final ProcessingConfig processingConfig;
+    private final ProcessingMetrics metrics;
+
+    public record EntryResult(String entry, NfXmlWriteResult.Status status, Exception error) {
+    }
+
+    public record BundleResult(String bundle, List<EntryResult> entries) {
+
+        public long count(NfXmlWriteResult.Status status) {
+            return entries.stream().filter(entry -> entry.status() == status).count();
+        }
+
+        /**
+         * Pacote vai para processados só se tiver XMLs e nenhum deles falhou; duplicadas já estão no banco.
+         */
+        public boolean isSuccessful() {
+            return !entries.isEmpty() && count(NfXmlWriteResult.Status.FAILED) == 0;
+        }
+
+        /**
+         * Falha de uma entrada que não é defeito do próprio XML (ex.: FTP ou banco fora do ar): o
+         * pacote pode ser lido de novo depois. {@code null} se não houver.
+         */
+        public Exception retryableFailure() {
+            List<Exception> failures = entries.stream()
+                    .filter(entry -> entry.status() == NfXmlWriteResult.Status.FAILED)
+                    .map(EntryResult::error)
+                    .toList();
+            // Uma falha transitória vem primeiro: ela mantém o pacote na origem mesmo sem o registro
+            return failures.stream()
+                    .filter(ResilienceService::isTransient)
+                    .findFirst()
+                    .orElseGet(() -> failures.stream()
+                            .filter(error -> !RetryLedgerService.isPermanent(error))
+                            .findFirst()
+                            .orElse(null));
+        }
+    }
+
+    /**
+     * Só {@code .zip} e {@code .xml.gz}: outros {@code .gz} na pasta (logs, backups) não são notas.
+     */
+    public static boolean isBundle(String filename) {
+        String lowerName = filename.toLowerCase(Locale.ROOT);
+        return lowerName.endsWith(".zip") || lowerName.endsWith(".xml.gz");
+    }
+
+    /**
+     * XMLs avulsos e pacotes: o que as origens devem listar.
+     */
+    public static boolean isIngestible(String filename) {
+        return filename.toLowerCase(Locale.ROOT).endsWith(".xml") || isBundle(filename);
+    }
+
+    /**
+     * Lê todas as entradas do pacote e grava as notas.
+     *
+     * @return o resultado de cada entrada XML, na ordem do pacote
+     * @throws IOException se o pacote não pôde ser lido até o fim
+     */
+    public BundleResult process(InputStream inputStream, String bundle) throws IOException {
+        List<EntryResult> results = new ArrayList<>();
+        Chunk chunk = new Chunk(results);
+
+        if (bundle.toLowerCase(Locale.ROOT).endsWith(".zip")) {
+            ZipInputStream zip = new ZipInputStream(inputStream);
+            ZipEntry zipEntry;
+            while ((zipEntry = zip.getNextEntry()) != null) {
+                if (!zipEntry.isDirectory() && zipEntry.getName().toLowerCase(Locale.ROOT).endsWith(".xml")) {
+                    parseEntry(new UnclosableInputStream(zip), bundle, zipEntry.getName(), chunk);
+                }
+                zip.closeEntry();
+            }
+        } else {
+            String entry = bundle.substring(bundle.lastIndexOf('/') + 1, bundle.length() - ".gz".length());
+            parseEntry(new GZIPInputStream(inputStream), bundle, entry, chunk);
+        }
+        chunk.flush();
+
+        BundleResult result = new BundleResult(bundle, results);
+        log.info("📦 Pacote {}: {} XMLs, {} gravados, {} duplicados, {} com erro", bundle, results.size(),
+                result.count(NfXmlWriteResult.Status.INSERTED), result.count(NfXmlWriteResult.Status.DUPLICATE),
+                result.count(NfXmlWriteResult.Status.FAILED));
+        return result;
+    }
+
+    private void parseEntry(InputStream entryStream, String bundle, String entry, Chunk chunk) {
+        try {
+            chunk.add(entry, xmlProcessingService.parseXml(entryStream, linkName(bundle, entry)));
+        } catch (Exception e) {
+            log.error("Erro no processamento do XML {} do pacote {}", entry, bundle, e);
+            chunk.fail(entry, e);
+        }
+    }
+
+    /**
+     * DS_LINK_XML guarda {@code pacote!entrada} quando cabe na coluna, senão só a entrada.
+     */
+    private static String linkName(String bundle, String entry) {
+        String link = bundle + "!" + entry;
+        return link.length() <= LINK_MAX_LENGTH ? link : entry;
+    }
+
+    /**
+     * Notas lidas aguardando gravação; grava ao completar {@code commit-chunk-size} linhas.
+     */
+    private class Chunk {
+        private final List<EntryResult> results;
+        private final List<String> entries = new ArrayList<>();
+        private final List<List<NfXmlEntity>> entryRows = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        private int rows = 0;
+
+        Chunk(List<EntryResult> results) {
+            this.results = results;
+        }
+
+        void add(String entry, List<NfXmlEntity> entities) {
+            positions.add(results.size());
+            results.add(null);
+            entries.add(entry);
+            entryRows.add(entities);
+            rows += entities.size();
+            if (rows >= Math.max(1, processingConfig.getCommitChunkSize())) {
+                flush();
+            }
+        }
+
+        void fail(String entry, Exception error) {
+            results.add(new EntryResult(entry, NfXmlWriteResult.Status.FAILED, error));
+            metrics.fileFailed(error);
+        }
+
+        void flush() {
+            if (rows == 0) {
+                return;
+            }
+            List<NfXmlWriteResult> written = xmlProcessingService.persistSources(entryRows);
+            int offset = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                List<NfXmlEntity> entities = entryRows.get(i);
+                NfXmlWriteResult.Status status = NfXmlWriteResult.Status.INSERTED;
+                Exception error = null;
+                try {
+                    xmlProcessingService.requireWritten(entities,
+                            written.subList(offset, offset + entities.size()), entries.get(i));
+                    metrics.fileProcessed();
+                } catch (DuplicateNfException e) {
+                    status = NfXmlWriteResult.Status.DUPLICATE;
+                    error = e;
+                    log.warn("XML {}: {}", entries.get(i), e.getMessage());
+                    metrics.fileFailed(e);
+                } catch (IOException e) {
+                    status = NfXmlWriteResult.Status.FAILED;
+                    error = e;
+                    log.error("Erro ao gravar o XML {}", entries.get(i), e);
+                    metrics.fileFailed(e);
+                }
+                results.set(positions.get(i), new EntryResult(entries.get(i), status, error));
+                offset += entities.size();
+            }
+            entries.clear();
+            entryRows.clear();
+            positions.clear();
+            rows = 0;
+        }
+    }
+
+    /**
+     * O parser fecha o stream ao terminar o documento; a entrada do ZIP não pode fechar o pacote.
+     */
+    private static class UnclosableInputStream extends FilterInputStream {
+        UnclosableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package financeiro.nf.services;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Copia os primeiros bytes lidos pelo parser para um buffer limitado, de modo que o texto gravado
+ * em DS_XML_COMPL venha do arquivo original, sem reserializar o documento.
+ */
+class XmlCaptureInputStream extends FilterInputStream {
+
+    // Pior caso de bytes por caractere (UTF-8) mais folga para um caractere cortado no fim
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    private final byte[] buffer;
+    private final int maxChars;
+    private int captured = 0;
+
+    XmlCaptureInputStream(InputStream in, int maxChars) {
+        super(in);
+        this.maxChars = maxChars;
+        this.buffer = new byte[maxChars * MAX_BYTES_PER_CHAR + MAX_BYTES_PER_CHAR];
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0 && captured < buffer.length) {
+            buffer[captured++] = (byte) b;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0 && captured < buffer.length) {
+            int toCopy = Math.min(n, buffer.length - captured);
+            System.arraycopy(b, off, buffer, captured, toCopy);
+            captured += toCopy;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Pula lendo, para que os bytes pulados também sejam capturados
+        byte[] discard = new byte[(int) Math.min(n, 8192)];
+        long remaining = n;
+        while (remaining > 0) {
+            int read = read(discard, 0, (int) Math.min(remaining, discard.length));
+            if (read < 0) break;
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    /**
+     * O stream pertence a quem o abriu: o parser DOM fecha a entrada ao terminar, o que
+     * encerraria o canal de dados FTP antes da hora e impediria completar a captura.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Texto original do início do arquivo, com no máximo {@code maxChars} caracteres.
+     * Se o parser parou antes do limite (ex.: StAX encerra após a nota), completa a captura
+     * lendo o restante do stream.
+     *
+     * @param encoding codificação informada pelo parser; UTF-8 quando ausente ou desconhecida
+     */
+    String capturedText(String encoding) throws IOException {
+        byte[] chunk = new byte[8192];
+        while (captured < buffer.length) {
+            if (read(chunk, 0, Math.min(chunk.length, buffer.length - captured)) < 0) break;
+        }
+
+        String text = Charset.forName(resolveEncoding(encoding)).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(ByteBuffer.wrap(Arrays.copyOf(buffer, captured)))
+                .toString();
+
+        // Remove o BOM, que não faz parte do conteúdo
+        if (!text.isEmpty() && text.charAt(0) == '\uFEFF') {
+            text = text.substring(1);
+        }
+        return text.length() > maxChars ? text.substring(0, maxChars) : text;
+    }
+
+    private static String resolveEncoding(String encoding) {
+        if (encoding == null || encoding.isBlank()) {
+            return StandardCharsets.UTF_8.name();
+        }
+        try {
+            return Charset.isSupported(encoding) ? encoding : StandardCharsets.UTF_8.name();
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8.name();
+        }
+    }
+}
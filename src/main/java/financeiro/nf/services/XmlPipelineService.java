@@ -0,0 +1,419 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Pipeline em estágios para um ciclo de processamento:
+ * download FTP → parse/extração → persistência → move no FTP.
+ * Cada estágio tem seus próprios workers e as filas entre eles são limitadas, de modo que um
+ * estágio lento bloqueia o anterior (backpressure) em vez de acumular arquivos em memória.
+ * Falhas em qualquer estágio seguem direto para o estágio de move, que as envia para a pasta de erro
+ * ou, conforme o {@link RetryLedgerService}, as deixa na origem para nova tentativa.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class XmlPipelineService {
+
+    private static final PipelineItem POISON = new PipelineItem(null, null);
+
+    private final FtpService ftpService;
+    private final XmlProcessingService xmlProcessingService;
+    private final ProcessingConfig processingConfig;
+    private final CommitRateTracker commitRateTracker;
+    private final ArchiveLayout archiveLayout;
+    private final FileSpool fileSpool;
+    private final RetryLedgerService retryLedger;
+    private final ProcessingMetrics metrics;
+
+    /**
+     * @param unsettled  arquivos que continuam no diretório de origem (move falhou ou pipeline interrompido)
+     * @param notStarted os de {@code unsettled} que nem começaram antes do deadline do ciclo
+     */
+    public record PipelineResult(int processed, int failed, List<String> unsettled, List<String> notStarted) {
+    }
+
+    /**
+     * Processa os arquivos listados em {@code sourceDir}, bloqueando até que todos tenham sido
+     * movidos para o destino de sucesso ou de erro. Após {@code deadline} (epoch ms) nenhum arquivo
+     * novo entra no pipeline; os que já entraram são concluídos e os demais voltam em {@code unsettled}.
+     * Um erro fatal num worker (ex.: {@link OutOfMemoryError}) aborta todos os estágios e é relançado aqui.
+     */
+    public PipelineResult run(List<String> files, String sourceDir, long deadline) {
+        int fetchWorkers = Math.max(1, processingConfig.getFetchWorkers());
+        int parseWorkers = Math.max(1, processingConfig.getParseWorkers());
+        int persistWorkers = Math.max(1, processingConfig.getPersistWorkers());
+        int moveWorkers = Math.max(1, processingConfig.getMoveWorkers());
+        int capacity = Math.max(1, processingConfig.getQueueCapacity());
+        int chunkSize = Math.max(1, processingConfig.getCommitChunkSize());
+
+        // Capacidade extra para as pílulas de término nunca bloquearem
+        BlockingQueue<PipelineItem> fetchQueue = new ArrayBlockingQueue<>(capacity + fetchWorkers);
+        BlockingQueue<PipelineItem> parseQueue = new ArrayBlockingQueue<>(capacity + parseWorkers);
+        // A fila de persistência comporta um chunk inteiro, senão a drenagem nunca o completa
+        BlockingQueue<PipelineItem> persistQueue = new ArrayBlockingQueue<>(Math.max(capacity, chunkSize) + persistWorkers);
+        BlockingQueue<PipelineItem> moveQueue = new ArrayBlockingQueue<>(capacity + moveWorkers);
+
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        Set<String> settled = ConcurrentHashMap.newKeySet();
+        AtomicReference<Throwable> fatal = new AtomicReference<>();
+        int started = 0;
+
+        int totalWorkers = fetchWorkers + parseWorkers + persistWorkers + moveWorkers;
+        CountDownLatch done = new CountDownLatch(totalWorkers);
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(totalWorkers, runnable -> {
+            Thread thread = new Thread(runnable, "nf-pipeline-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.info("🏭 Pipeline iniciado: {} arquivos (download={}, parse={}, persistência={}, move={})",
+                files.size(), fetchWorkers, parseWorkers, persistWorkers, moveWorkers);
+
+        try {
+            startStage(executor, done, fatal, "download", fetchWorkers, 1, fetchQueue, parseQueue, parseWorkers, moveQueue,
+                    () -> new FetchHandler());
+            startStage(executor, done, fatal, "parse", parseWorkers, 1, parseQueue, persistQueue, persistWorkers, moveQueue,
+                    () -> item -> {
+                        try (FileSpool.SpooledFile file = item.file; InputStream is = file.open()) {
+                            item.entities = xmlProcessingService.parseXml(is, item.filename);
+                        } finally {
+                            item.file = null;
+                        }
+                    });
+            startStage(executor, done, fatal, "persistência", persistWorkers, chunkSize, persistQueue, moveQueue, moveWorkers,
+                    moveQueue, () -> new PersistHandler());
+            startStage(executor, done, fatal, "move", moveWorkers, 1, moveQueue, null, 0, null,
+                    () -> new MoveHandler(sourceDir, processed, failed, settled));
+
+            // Alimenta o primeiro estágio; o put bloqueia quando o download está saturado
+            for (String file : files) {
+                if (System.currentTimeMillis() >= deadline) {
+                    log.info("⏳ Tempo do ciclo esgotado, arquivos restantes ficam para o próximo ciclo");
+                    break;
+                }
+                if (!feed(fetchQueue, new PipelineItem(file, sourceDir + "/" + file), fatal)) {
+                    break;
+                }
+                started++;
+            }
+            for (int i = 0; i < fetchWorkers; i++) {
+                if (!feed(fetchQueue, POISON, fatal)) {
+                    break;
+                }
+            }
+
+            done.await();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("⚠️ Pipeline interrompido, arquivos restantes ficam para o próximo ciclo");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Throwable failure = fatal.get();
+        if (failure instanceof Error error) {
+            throw error;
+        }
+        if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+
+        log.info("🏁 Pipeline concluído: {} processados, {} com erro ({} commits na última hora)",
+                processed.get(), failed.get(), commitRateTracker.getCommitsLastHour());
+        List<String> unsettled = files.stream().filter(file -> !settled.contains(file)).toList();
+        return new PipelineResult(processed.get(), failed.get(), unsettled, files.subList(started, files.size()));
+    }
+
+    /**
+     * Entrega um item ao primeiro estágio; desiste se o pipeline foi abortado por um erro fatal,
+     * quando já não há workers de download consumindo a fila.
+     */
+    private static boolean feed(BlockingQueue<PipelineItem> queue, PipelineItem item,
+                                AtomicReference<Throwable> fatal) throws InterruptedException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (fatal.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startStage(ExecutorService executor, CountDownLatch done, AtomicReference<Throwable> fatal,
+                            String stageName, int workers, int batchSize, BlockingQueue<PipelineItem> input,
+                            BlockingQueue<PipelineItem> output, int downstreamWorkers,
+                            BlockingQueue<PipelineItem> failureQueue, Supplier<StageHandler> handlerFactory) {
+        AtomicInteger remaining = new AtomicInteger(workers);
+
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                try (StageHandler handler = handlerFactory.get()) {
+                    boolean finished = false;
+                    while (!finished) {
+                        PipelineItem first = input.take();
+                        if (first == POISON) {
+                            break;
+                        }
+
+                        List<PipelineItem> batch = new ArrayList<>(batchSize);
+                        batch.add(first);
+                        if (batchSize > 1) {
+                            input.drainTo(batch, batchSize - 1);
+                            // Pílulas drenadas junto com o lote: este worker encerra e devolve as excedentes
+                            int poisons = 0;
+                            while (batch.remove(POISON)) {
+                                poisons++;
+                            }
+                            for (int j = 1; j < poisons; j++) {
+                                input.put(POISON);
+                            }
+                            finished = poisons > 0;
+                        }
+
+                        try {
+                            handler.handleBatch(batch);
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            for (PipelineItem item : batch) {
+                                if (item.failure == null) {
+                                    item.failure = e;
+                                }
+                            }
+                        }
+
+                        for (PipelineItem item : batch) {
+                            if (item.failure != null && failureQueue != null) {
+                                log.error("Erro no estágio de {} do XML {}", stageName, item.filename, item.failure);
+                                item.discardFile();
+                                failureQueue.put(item);
+                            } else if (output != null) {
+                                output.put(item);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException | Error e) {
+                    // Sem este worker o estágio pode não drenar mais a fila: aborta o pipeline inteiro
+                    log.error("❌ Erro fatal no estágio de {}, abortando o pipeline", stageName, e);
+                    fatal.compareAndSet(null, e);
+                    executor.shutdownNow();
+                } finally {
+                    // O último worker do estágio libera os workers do estágio seguinte, mesmo após um erro
+                    try {
+                        if (remaining.decrementAndGet() == 0 && output != null) {
+                            for (int j = 0; j < downstreamWorkers; j++) {
+                                output.put(POISON);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageHandler extends AutoCloseable {
+        void handle(PipelineItem item) throws Exception;
+
+        /**
+         * Processa um lote; por padrão item a item, registrando a falha de cada um.
+         */
+        default void handleBatch(List<PipelineItem> batch) throws Exception {
+            for (PipelineItem item : batch) {
+                try {
+                    handle(item);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    item.failure = e;
+                }
+            }
+        }
+
+        @Override
+        default void close() {
+        }
+    }
+
+    /**
+     * Grava as notas em chunks drenados da fila de persistência, um commit por chunk; duplicadas
+     * e falhas individuais seguem para a pasta de erro como no processamento arquivo a arquivo.
+     */
+    private class PersistHandler implements StageHandler {
+
+        @Override
+        public void handle(PipelineItem item) throws Exception {
+            handleBatch(List.of(item));
+        }
+
+        @Override
+        public void handleBatch(List<PipelineItem> batch) {
+            // Todas as linhas (notas/itens) dos arquivos do lote vão no mesmo chunk
+            List<NfXmlWriteResult> results = xmlProcessingService.persistSources(
+                    batch.stream().map(item -> item.entities).toList());
+
+            int offset = 0;
+            for (PipelineItem item : batch) {
+                int rows = item.entities.size();
+                try {
+                    xmlProcessingService.requireWritten(item.entities, results.subList(offset, offset + rows),
+                            item.filename);
+                } catch (IOException e) {
+                    item.failure = e;
+                }
+                offset += rows;
+            }
+        }
+    }
+
+    /**
+     * Cada worker de download mantém a sua própria sessão FTP enquanto houver arquivos; com o
+     * spool, a sessão é emprestada só durante a transferência de cada arquivo.
+     */
+    private class FetchHandler implements StageHandler {
+        private FtpSession session;
+
+        @Override
+        public void handle(PipelineItem item) throws IOException, InterruptedException {
+            if (fileSpool.isEnabled()) {
+                item.file = fileSpool.fetch(item.sourcePath);
+                return;
+            }
+            if (session == null || session.isBroken()) {
+                close();
+                session = ftpService.openSession();
+            }
+            try (InputStream is = session.retrieveFile(item.sourcePath)) {
+                item.file = FileSpool.SpooledFile.inMemory(is.readAllBytes());
+            }
+        }
+
+        @Override
+        public void close() {
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * Move os arquivos concluídos para a pasta de processados e os que falharam para a de erro;
+     * os que devem ser tentados de novo ({@link RetryLedgerService#shouldRetry}) ficam na origem.
+     */
+    private class MoveHandler implements StageHandler {
+        private final String sourceDir;
+        private final AtomicInteger processed;
+        private final AtomicInteger failed;
+        private final Set<String> settled;
+        private FtpSession session;
+
+        MoveHandler(String sourceDir, AtomicInteger processed, AtomicInteger failed, Set<String> settled) {
+            this.sourceDir = sourceDir;
+            this.processed = processed;
+            this.failed = failed;
+            this.settled = settled;
+        }
+
+        @Override
+        public void handle(PipelineItem item) throws IOException {
+            String origin = FtpSessionSource.name(sourceDir);
+            if (item.failure != null && retryLedger.shouldRetry(origin, item.filename, item.failure)) {
+                return;
+            }
+            if (session == null || session.isBroken()) {
+                close();
+                session = ftpService.openSession();
+            }
+
+            // Os contadores só incluem arquivos que de fato saíram da origem
+            if (item.failure == null) {
+                try {
+                    archiveLayout.moveToProcessed(session, sourceDir, item.filename);
+                    processed.incrementAndGet();
+                    settled.add(item.filename);
+                    retryLedger.settled(origin, item.filename);
+                    metrics.fileProcessed();
+                    metrics.fileLatency().record(System.nanoTime() - item.startedAt, TimeUnit.NANOSECONDS);
+                    log.info("XML {} processado e movido com sucesso", item.filename);
+                } catch (IOException ioException) {
+                    log.error("Falha ao mover XML {}", item.filename, ioException);
+                }
+            } else {
+                try {
+                    archiveLayout.moveToError(session, sourceDir, item.filename);
+                    failed.incrementAndGet();
+                    settled.add(item.filename);
+                    retryLedger.settled(origin, item.filename);
+                    metrics.fileFailed(item.failure);
+                    metrics.fileLatency().record(System.nanoTime() - item.startedAt, TimeUnit.NANOSECONDS);
+                    log.warn("XML {} movido para pasta de erro", item.filename);
+                } catch (IOException ioException) {
+                    log.error("Erro ao mover arquivo falho {} para pasta de erro", item.filename, ioException);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+        }
+    }
+
+    private static class PipelineItem {
+        private final String filename;
+        private final String sourcePath;
+        private final long startedAt = System.nanoTime();
+        private FileSpool.SpooledFile file;
+        private List<NfXmlEntity> entities;
+        private Exception failure;
+
+        PipelineItem(String filename, String sourcePath) {
+            this.filename = filename;
+            this.sourcePath = sourcePath;
+        }
+
+        void discardFile() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    log.warn("Não foi possível remover {} do spool: {}", filename, e.getMessage());
+                }
+                file = null;
+            }
+        }
+    }
+}
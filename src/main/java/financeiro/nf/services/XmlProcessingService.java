@@ -1,12 +1,14 @@
 package financeiro.nf.services;
 
+import financeiro.nf.config.ProcessingConfig;
 import financeiro.nf.models.NfXmlEntity;
 import financeiro.nf.repositories.NfXmlRepository;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -15,18 +17,21 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 
 import static com.fasterxml.jackson.core.internal.shaded.fdp.v2_19_2.JavaBigDecimalParser.parseBigDecimal;
 import static org.apache.tomcat.util.http.FastHttpDateFormat.parseDate;
@@ -36,89 +41,391 @@ import static org.apache.tomcat.util.http.FastHttpDateFormat.parseDate;
 @RequiredArgsConstructor
 public class XmlProcessingService {
 
+    // Tamanho da coluna DS_XML_COMPL
+    static final int XML_COMPL_MAX_LENGTH = 4000;
+
     private final NfXmlRepository repository;
+    private final ProcessingConfig processingConfig;
+    private final NfXmlBatchWriter batchWriter;
+    private final NfXmlMergeWriter mergeWriter;
+    private final DuplicateKeyIndex duplicateKeyIndex;
+    private final CommitRateTracker commitRateTracker;
+    private final ResilienceService resilience;
+    private final ProcessingMetrics metrics;
+    private final StaxNfExtractor staxExtractor = new StaxNfExtractor();
 
-    @Transactional
     public void processXml(InputStream inputStream, String filename) throws IOException {
+        persist(parseXml(inputStream, filename), filename);
+    }
+
+    /**
+     * Etapa de parse: lê o XML e extrai uma entidade por nota ({@code NOTA}) ou item
+     * ({@code Reg20Item}) do arquivo, sem acessar o banco. Itens da mesma nota (número + série)
+     * recebem {@code NR_ITEM_NF} sequencial a partir de 1.
+     * O motor é escolhido por {@code file.processing.parser-engine} (stax ou dom).
+     */
+    public List<NfXmlEntity> parseXml(InputStream inputStream, String filename) throws IOException {
+        Timer.Sample sample = metrics.start();
+        try {
+            if (ProcessingConfig.PARSER_ENGINE_DOM.equalsIgnoreCase(processingConfig.getParserEngine())) {
+                return parseXmlDom(inputStream, filename);
+            }
+            return parseXmlStax(inputStream, filename);
+        } finally {
+            sample.stop(metrics.parse());
+        }
+    }
+
+    List<NfXmlEntity> parseXmlDom(InputStream inputStream, String filename) throws IOException {
         try {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             factory.setNamespaceAware(true);
             DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(inputStream);
+            XmlCaptureInputStream capture = new XmlCaptureInputStream(inputStream, XML_COMPL_MAX_LENGTH);
+            Document doc = builder.parse(capture);
 
             // Extrai dados do XML
-            NfXmlEntity nfEntity = extractDataFromXml(doc, filename);
+            String encoding = doc.getXmlEncoding() != null ? doc.getXmlEncoding() : doc.getInputEncoding();
+            return numberItems(extractDataFromXml(doc, filename, capture.capturedText(encoding)));
 
-            // Verifica se já existe
-            if (repository.existsByNrNotaFiscalAndCdSerieNf(
-                    nfEntity.getNrNotaFiscal(), nfEntity.getCdSerieNf())){
-                throw new IOException("Nota fiscal já processada: " +
-                        nfEntity.getNrNotaFiscal() + " Série: " + nfEntity.getCdSerieNf());
-            }
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Erro ao parsear XML " + filename, e);
+        } catch (Exception e) {
+            throw new IOException("Erro ao processar arquivo " + filename, e);
+        }
+    }
 
-            // Salva no Banco
-            repository.save(nfEntity);
-            log.info("Nota fiscal {} processada com sucesso", nfEntity.getNrNotaFiscal());
+    List<NfXmlEntity> parseXmlStax(InputStream inputStream, String filename) throws IOException {
+        try {
+            // O início do arquivo original é capturado durante o parse para o DS_XML_COMPL
+            XmlCaptureInputStream capture = new XmlCaptureInputStream(inputStream, XML_COMPL_MAX_LENGTH);
+            StaxNfExtractor.Result result = staxExtractor.extract(capture);
+            String xmlContent = capture.capturedText(result.encoding());
+
+            List<NfXmlEntity> entities = new ArrayList<>(Math.max(1, result.records().size()));
+            for (Map<String, String> fields : result.records()) {
+                NfXmlEntity entity = new NfXmlEntity();
+                if (result.format() == StaxNfExtractor.Format.NFSE) {
+                    applyNfseFields(fields::get, entity, filename, xmlContent);
+                } else {
+                    applyNfeFields(fields::get, entity, filename, xmlContent);
+                }
+                entities.add(entity);
+            }
+            if (entities.isEmpty()) {
+                NfXmlEntity entity = new NfXmlEntity();
+                setDefaultRequiredValues(entity, filename, xmlContent);
+                log.warn("⚠️ Formato de XML não reconhecido, usando valores padrão");
+                entities.add(entity);
+            }
+            return numberItems(entities);
 
-        } catch (ParserConfigurationException | SAXException e) {
+        } catch (XMLStreamException e) {
             throw new IOException("Erro ao parsear XML " + filename, e);
-        } catch (DataIntegrityViolationException e) {
-            throw new IOException("Erro de integridade nos dados do arquivo " + filename, e);
         } catch (Exception e) {
             throw new IOException("Erro ao processar arquivo " + filename, e);
         }
     }
 
-    private NfXmlEntity extractDataFromXml(Document doc, String filename) {
-        NfXmlEntity entity = new NfXmlEntity();
+    /**
+     * Etapa de persistência das notas de um arquivo, em chunks de {@code file.processing.commit-chunk-size}
+     * linhas que nunca separam os itens de uma nota.
+     *
+     * @throws DuplicateNfException se todas as notas do arquivo já estavam gravadas
+     * @throws IOException          se alguma nota falhou (as demais ficam gravadas)
+     */
+    public void persist(List<NfXmlEntity> entities, String filename) throws IOException {
+        int chunkSize = Math.max(1, processingConfig.getCommitChunkSize());
+        List<NfXmlWriteResult> results = new ArrayList<>(entities.size());
+        int start = 0;
+        while (start < entities.size()) {
+            int end = Math.min(start + chunkSize, entities.size());
+            while (end < entities.size() && sameNote(entities.get(end - 1), entities.get(end))) {
+                end++;
+            }
+            results.addAll(persistAll(entities.subList(start, end)));
+            start = end;
+        }
+        requireWritten(entities, results, filename);
+    }
+
+    /**
+     * Resultado do arquivo a partir do resultado de cada nota: falha se alguma falhou, duplicado
+     * se nenhuma foi inserida.
+     */
+    public void requireWritten(List<NfXmlEntity> entities, List<NfXmlWriteResult> results, String filename)
+            throws IOException {
+        int inserted = 0;
+        for (int i = 0; i < results.size(); i++) {
+            NfXmlWriteResult result = results.get(i);
+            if (result.status() == NfXmlWriteResult.Status.FAILED) {
+                throw result.error() instanceof DataIntegrityViolationException
+                        ? new IOException("Erro de integridade nos dados do arquivo " + filename, result.error())
+                        : new IOException("Erro ao processar arquivo " + filename, result.error());
+            }
+            if (result.status() == NfXmlWriteResult.Status.INSERTED) {
+                inserted++;
+            }
+        }
+        if (inserted == 0) {
+            NfXmlEntity first = entities.get(0);
+            throw new DuplicateNfException(first.getNrNotaFiscal(), first.getCdSerieNf());
+        }
+        if (entities.size() == 1) {
+            log.info("Nota fiscal {} processada com sucesso", entities.get(0).getNrNotaFiscal());
+        } else {
+            log.info("Arquivo {}: {} de {} linhas gravadas", filename, inserted, entities.size());
+        }
+    }
+
+    /**
+     * Persistência em chunk: descarta as notas já conhecidas como duplicadas e grava as demais
+     * em uma única transação (MERGE ou insert, conforme {@code file.processing.persist-mode}).
+     * Se o chunk falhar, ele é dividido ao meio e cada metade regravada na sua transação, até
+     * isolar as notas com erro; as demais são gravadas normalmente. A divisão respeita os itens
+     * de uma mesma nota, que ficam juntos na mesma transação.
+     *
+     * @return o resultado de cada nota, na mesma ordem da lista recebida
+     */
+    public List<NfXmlWriteResult> persistAll(List<NfXmlEntity> entities) {
+        return persistAll(entities, new int[entities.size()]);
+    }
+
+    /**
+     * Como o {@link #persistAll(List)}, para as linhas de vários arquivos (ou entradas de um pacote)
+     * gravadas no mesmo chunk. Uma nota nunca continua de uma origem para a seguinte, mesmo que a
+     * última linha de uma e a primeira da outra tenham a mesma chave: são gravadas em separado e a
+     * segunda sai como duplicada.
+     *
+     * @return o resultado de cada linha, na ordem das origens
+     */
+    public List<NfXmlWriteResult> persistSources(List<List<NfXmlEntity>> sources) {
+        List<NfXmlEntity> entities = new ArrayList<>();
+        for (List<NfXmlEntity> source : sources) {
+            entities.addAll(source);
+        }
+        int[] sourceOf = new int[entities.size()];
+        int row = 0;
+        for (int source = 0; source < sources.size(); source++) {
+            for (int i = 0; i < sources.get(source).size(); i++) {
+                sourceOf[row++] = source;
+            }
+        }
+        return persistAll(entities, sourceOf);
+    }
+
+    private List<NfXmlWriteResult> persistAll(List<NfXmlEntity> entities, int[] sourceOf) {
+        boolean merge = processingConfig.isMergePersistMode();
+        NfXmlWriteResult[] results = new NfXmlWriteResult[entities.size()];
+        List<Integer> pending = new ArrayList<>();
+
+        for (int i = 0; i < entities.size(); i++) {
+            NfXmlEntity entity = entities.get(i);
+            // Duplicidade é por nota: os demais itens seguem a resposta do primeiro
+            boolean duplicate;
+            if (i > 0 && sameNote(entities, sourceOf, i - 1, i)) {
+                duplicate = results[i - 1] != null;
+            } else {
+                // O MERGE resolve a duplicidade no próprio comando: só o conjunto exato evita a ida ao banco
+                duplicate = merge
+                        ? duplicateKeyIndex.isKnownDuplicate(entity.getNrNotaFiscal(), entity.getCdSerieNf())
+                        : isAlreadyProcessed(entity);
+            }
+            if (duplicate) {
+                results[i] = NfXmlWriteResult.duplicate();
+            } else {
+                pending.add(i);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            writeChunk(entities, sourceOf, pending, results, merge);
+        }
+        return Arrays.asList(results);
+    }
+
+    private void writeChunk(List<NfXmlEntity> entities, int[] sourceOf, List<Integer> chunk,
+                            NfXmlWriteResult[] results, boolean merge) {
+        List<NfXmlEntity> chunkEntities = chunk.stream().map(entities::get).toList();
+        List<NfXmlWriteResult> written;
+        Timer.Sample sample = metrics.start();
+        try {
+            written = resilience.callDatabase("gravação de " + chunkEntities.size() + " notas", () -> {
+                if (merge) {
+                    return mergeWriter.mergeAll(chunkEntities);
+                }
+                try {
+                    batchWriter.insertAll(chunkEntities);
+                } catch (RuntimeException e) {
+                    // IDs atribuídos na transação desfeita não valem mais
+                    chunkEntities.forEach(entity -> entity.setNrSequencia(null));
+                    throw e;
+                }
+                return Collections.nCopies(chunkEntities.size(), NfXmlWriteResult.inserted());
+            });
+        } catch (Exception e) {
+            if (ResilienceService.isTransientDatabase(e)) {
+                // Banco indisponível: dividir o chunk não isola nada, todas as notas falham
+                log.error("💥 Banco indisponível, chunk de {} notas não gravado: {}", chunk.size(), e.getMessage());
+                chunk.forEach(index -> results[index] = NfXmlWriteResult.failed(e));
+                return;
+            }
+            int middle = noteBoundary(entities, sourceOf, chunk);
+            if (middle == 0) {
+                // Uma única nota; índice único violado por uma gravação concorrente da mesma nota
+                NfXmlWriteResult result = e instanceof DuplicateKeyException
+                        ? NfXmlWriteResult.duplicate()
+                        : NfXmlWriteResult.failed(e);
+                chunk.forEach(index -> results[index] = result);
+                return;
+            }
+            log.warn("⚠️ Falha no chunk de {} notas, dividindo para isolar o erro: {}", chunk.size(), e.getMessage());
+            writeChunk(entities, sourceOf, chunk.subList(0, middle), results, merge);
+            writeChunk(entities, sourceOf, chunk.subList(middle, chunk.size()), results, merge);
+            return;
+        } finally {
+            sample.stop(metrics.insert(merge ? ProcessingConfig.PERSIST_MODE_MERGE : ProcessingConfig.PERSIST_MODE_JPA));
+        }
+
+        commitRateTracker.recordCommit();
+        log.info("Chunk de {} notas fiscais gravado com sucesso", chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            NfXmlEntity entity = chunkEntities.get(i);
+            duplicateKeyIndex.register(entity.getNrNotaFiscal(), entity.getCdSerieNf());
+            results[chunk.get(i)] = written.get(i);
+        }
+    }
+
+    /**
+     * Posição que divide o chunk ao meio sem separar itens da mesma nota; 0 se o chunk é uma nota só.
+     */
+    private static int noteBoundary(List<NfXmlEntity> entities, int[] sourceOf, List<Integer> chunk) {
+        for (int middle = Math.max(1, chunk.size() / 2); middle < chunk.size(); middle++) {
+            if (!sameNote(entities, sourceOf, chunk.get(middle - 1), chunk.get(middle))) {
+                return middle;
+            }
+        }
+        for (int middle = chunk.size() / 2 - 1; middle > 0; middle--) {
+            if (!sameNote(entities, sourceOf, chunk.get(middle - 1), chunk.get(middle))) {
+                return middle;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Linhas {@code a} e {@code b} são itens da mesma nota do mesmo arquivo.
+     */
+    private static boolean sameNote(List<NfXmlEntity> entities, int[] sourceOf, int a, int b) {
+        return sourceOf[a] == sourceOf[b] && sameNote(entities.get(a), entities.get(b));
+    }
+
+    private static boolean sameNote(NfXmlEntity a, NfXmlEntity b) {
+        return Objects.equals(a.getNrNotaFiscal(), b.getNrNotaFiscal())
+                && Objects.equals(a.getCdSerieNf(), b.getCdSerieNf());
+    }
+
+    private boolean isAlreadyProcessed(NfXmlEntity entity) {
+        return duplicateKeyIndex.isDuplicate(entity.getNrNotaFiscal(), entity.getCdSerieNf(),
+                () -> metrics.dedupeQuery().record(() -> resilience.callDatabase("consulta de duplicidade", () ->
+                        repository.existsByNrNotaFiscalAndCdSerieNf(entity.getNrNotaFiscal(), entity.getCdSerieNf()))));
+    }
+
+    private List<NfXmlEntity> extractDataFromXml(Document doc, String filename, String xmlContent) {
+        List<NfXmlEntity> entities = new ArrayList<>();
 
         // Tenta primeiro o formato NFS-e (novo)
         NodeList notaNodes = doc.getElementsByTagName("NOTA");
+        NodeList reg20Items = doc.getElementsByTagNameNS("NFe", "Reg20Item");
         if (notaNodes.getLength() > 0) {
-            // Formato NFS-e encontrado
-            extractDataFromNfseFormat((Element) notaNodes.item(0), entity, filename, doc);
+            // Formato NFS-e encontrado: uma entidade por NOTA
+            for (int i = 0; i < notaNodes.getLength(); i++) {
+                Element notaElement = (Element) notaNodes.item(i);
+                NfXmlEntity entity = new NfXmlEntity();
+                applyNfseFields(tag -> getElementText(notaElement, tag), entity, filename, xmlContent);
+                entities.add(entity);
+            }
         }
-        // Tenta o formato NFe anterior
-        else if (doc.getElementsByTagNameNS("NFe", "Reg20Item").getLength() > 0) {
-            NodeList reg20Items = doc.getElementsByTagNameNS("NFe", "Reg20Item");
-            extractDataFromNfeFormat((Element) reg20Items.item(0), entity, filename, doc);
+        // Tenta o formato NFe anterior: uma entidade por Reg20Item
+        else if (reg20Items.getLength() > 0) {
+            for (int i = 0; i < reg20Items.getLength(); i++) {
+                Element reg20Item = (Element) reg20Items.item(i);
+                NfXmlEntity entity = new NfXmlEntity();
+                applyNfeFields(tag -> getElementText(reg20Item, tag), entity, filename, xmlContent);
+                entities.add(entity);
+            }
         }
         else {
             // Formato não reconhecido, usa valores padrão
-            setDefaultRequiredValues(entity, filename, doc);
+            NfXmlEntity entity = new NfXmlEntity();
+            setDefaultRequiredValues(entity, filename, xmlContent);
             log.warn("⚠️ Formato de XML não reconhecido, usando valores padrão");
+            entities.add(entity);
         }
 
-        return entity;
+        return entities;
+    }
+
+    /**
+     * NR_ITEM_NF sequencial por nota (número + série) na ordem do arquivo. Com mais de um item,
+     * o valor de cada linha é o do item e VL_TOTAL_NOTA/VL_MERCADORIA passam a ser a soma dos itens.
+     * Os itens de uma nota ficam contíguos na lista, para irem juntos na mesma transação.
+     */
+    private List<NfXmlEntity> numberItems(List<NfXmlEntity> entities) {
+        if (entities.size() == 1) {
+            entities.get(0).setNrItemNf(1L);
+            return entities;
+        }
+        Map<List<String>, List<NfXmlEntity>> notes = new LinkedHashMap<>();
+        for (NfXmlEntity entity : entities) {
+            notes.computeIfAbsent(Arrays.asList(entity.getNrNotaFiscal(), entity.getCdSerieNf()),
+                    key -> new ArrayList<>()).add(entity);
+        }
+        List<NfXmlEntity> ordered = new ArrayList<>(entities.size());
+        for (List<NfXmlEntity> items : notes.values()) {
+            long itemNumber = 1;
+            for (NfXmlEntity item : items) {
+                item.setNrItemNf(itemNumber++);
+            }
+            if (items.size() > 1) {
+                BigDecimal total = items.stream().map(NfXmlEntity::getVlTotalItemNf)
+                        .filter(Objects::nonNull).reduce(BigDecimal.ZERO, BigDecimal::add);
+                for (NfXmlEntity item : items) {
+                    item.setVlTotalNota(total);
+                    item.setVlMercadoria(total);
+                }
+            }
+            ordered.addAll(items);
+        }
+        return ordered;
     }
 
-    // NOVO MÉTODO: Processa formato NFS-e (novo)
-    private void extractDataFromNfseFormat(Element notaElement, NfXmlEntity entity, String filename, Document doc) {
+    // Processa formato NFS-e (novo); os campos vêm do DOM ou do extrator StAX
+    private void applyNfseFields(Function<String, String> field, NfXmlEntity entity, String filename, String xmlContent) {
         log.info("📋 Processando XML no formato NFS-e");
 
         // Dados básicos da nota
-        entity.setNrNotaFiscal(getElementText(notaElement, "NUMERO"));
-        entity.setCdSerieNf(getElementText(notaElement, "SERIE"));
-        entity.setCdCgcEmitente(cleanCnpj(getElementText(notaElement, "CNPJ")));
-        entity.setCdCgc(cleanCnpj(getElementText(notaElement, "TOM_CPF_CNPJ")));
+        entity.setNrNotaFiscal(field.apply("NUMERO"));
+        entity.setCdSerieNf(field.apply("SERIE"));
+        entity.setCdCgcEmitente(cleanCnpj(field.apply("CNPJ")));
+        entity.setCdCgc(cleanCnpj(field.apply("TOM_CPF_CNPJ")));
 
         // Datas
-        String dtCompetencia = getElementText(notaElement, "DT_COMPETENCIA");
+        String dtCompetencia = field.apply("DT_COMPETENCIA");
         entity.setDtEmissao(parseDateTime(dtCompetencia));
 
         // Valores
-        String vlServico = getElementText(notaElement, "VL_SERVICO");
-        String vlLiquidoNfse = getElementText(notaElement, "VL_LIQUIDO_NFSE");
+        String vlServico = field.apply("VL_SERVICO");
+        String vlLiquidoNfse = field.apply("VL_LIQUIDO_NFSE");
         BigDecimal vlTotal = parseBigDecimal(vlServico);
         BigDecimal vlLiquido = parseBigDecimal(vlLiquidoNfse);
 
         entity.setVlTotalNota(vlTotal);
 
         // CAMPOS OBRIGATÓRIOS - VALORES PADRÃO
-        setDefaultRequiredValues(entity, filename, doc);
+        setDefaultRequiredValues(entity, filename, xmlContent);
 
-        // CAMPOS DE ITENS
-        entity.setNrItemNf(1L);
+        // CAMPOS DE ITENS (NR_ITEM_NF é numerado depois, por nota)
         entity.setQtItemNf(BigDecimal.ONE);
         entity.setVlUnitarioItemNf(vlTotal);
         entity.setVlTotalItemNf(vlTotal);
@@ -127,7 +434,7 @@ public class XmlProcessingService {
 
         // Outros campos
         entity.setVlMercadoria(vlTotal);
-        entity.setVlDescontos(parseBigDecimal(getElementText(notaElement, "VL_DESCONTO_INCONDICIONADO")));
+        entity.setVlDescontos(parseBigDecimal(field.apply("VL_DESCONTO_INCONDICIONADO")));
         entity.setVlFrete(BigDecimal.ZERO);
         entity.setVlSeguro(BigDecimal.ZERO);
         entity.setVlDespesaAcessoria(BigDecimal.ZERO);
@@ -137,43 +444,42 @@ public class XmlProcessingService {
         entity.setCdOperacaoNf(1L);
 
         // Observação com dados adicionais
-        String discriminacao = getElementText(notaElement, "DISCRIMINACAO");
+        String discriminacao = field.apply("DISCRIMINACAO");
         if (discriminacao != null && discriminacao.length() > 255) {
             discriminacao = discriminacao.substring(0, 255);
         }
         entity.setDsObservacao(discriminacao);
 
-        String razaoSocialEmitente = getElementText(notaElement, "PRE_RAZAO_SOCIAL");
-        String razaoSocialTomador = getElementText(notaElement, "TOM_RAZAO_SOCIAL");
+        String razaoSocialEmitente = field.apply("PRE_RAZAO_SOCIAL");
+        String razaoSocialTomador = field.apply("TOM_RAZAO_SOCIAL");
 
         log.info("✅ NFS-e {} processada - Emitente: {}, Tomador: {}",
                 entity.getNrNotaFiscal(), razaoSocialEmitente, razaoSocialTomador);
     }
 
-    // MÉTODO EXISTENTE: Processa formato NFe (antigo) - apenas renomeado
-    private void extractDataFromNfeFormat(Element reg20Item, NfXmlEntity entity, String filename, Document doc) {
+    // Processa formato NFe (antigo); os campos vêm do DOM ou do extrator StAX
+    private void applyNfeFields(Function<String, String> field, NfXmlEntity entity, String filename, String xmlContent) {
         log.info("📋 Processando XML no formato NFe");
 
         // Mapeamento dos campos do XML
-        entity.setNrNotaFiscal(getElementText(reg20Item, "NumNf"));
-        entity.setCdSerieNf(getElementText(reg20Item, "SerNf"));
-        entity.setCdCgcEmitente(cleanCnpj(getElementText(reg20Item, "CpfCnpjPre")));
-        entity.setCdCgc(cleanCnpj(getElementText(reg20Item, "CpfCnpjTom")));
+        entity.setNrNotaFiscal(field.apply("NumNf"));
+        entity.setCdSerieNf(field.apply("SerNf"));
+        entity.setCdCgcEmitente(cleanCnpj(field.apply("CpfCnpjPre")));
+        entity.setCdCgc(cleanCnpj(field.apply("CpfCnpjTom")));
 
         // Datas
-        String dtEmiNf = getElementText(reg20Item, "DtEmiNf");
+        String dtEmiNf = field.apply("DtEmiNf");
         entity.setDtEmissao(parseDateTime(dtEmiNf));
 
         // Valores
-        String vlNFS = getElementText(reg20Item, "VlNFS");
+        String vlNFS = field.apply("VlNFS");
         BigDecimal vlTotal = parseBigDecimal(vlNFS);
         entity.setVlTotalNota(vlTotal);
 
         // CAMPOS OBRIGATÓRIOS - VALORES PADRÃO
-        setDefaultRequiredValues(entity, filename, doc);
+        setDefaultRequiredValues(entity, filename, xmlContent);
 
-        // CAMPOS DE ITENS
-        entity.setNrItemNf(1L);
+        // CAMPOS DE ITENS (NR_ITEM_NF é numerado depois, por nota)
         entity.setQtItemNf(BigDecimal.ONE);
         entity.setVlUnitarioItemNf(vlTotal);
         entity.setVlTotalItemNf(vlTotal);
@@ -212,7 +518,7 @@ public class XmlProcessingService {
     }
 
     // MÉTODOS AUXILIARES (mantidos iguais)
-    private LocalDateTime parseDateTime(String dateStr) {
+    LocalDateTime parseDateTime(String dateStr) {
         if (dateStr == null || dateStr.trim().isEmpty()) {
             return LocalDateTime.now();
         }
@@ -240,7 +546,7 @@ public class XmlProcessingService {
         }
     }
 
-    private BigDecimal parseBigDecimal(String value) {
+    BigDecimal parseBigDecimal(String value) {
         if (value == null || value.trim().isEmpty()) {
             return BigDecimal.ZERO;
         }
@@ -262,7 +568,7 @@ public class XmlProcessingService {
         return (xml.length() > maxLength) ? xml.substring(0, maxLength) : xml;
     }
 
-    private void setDefaultRequiredValues(NfXmlEntity entity, String filename, Document doc) {
+    private void setDefaultRequiredValues(NfXmlEntity entity, String filename, String xmlContent) {
         entity.setIeAcaoNf("A");
         entity.setIeEmissaoNf("1");
         entity.setIeTipoFrete("9");
@@ -272,7 +578,7 @@ public class XmlProcessingService {
         entity.setNmUsuario("XML_PROCESSOR");
         entity.setIeNfEletronica("S");
         entity.setDsLinkXml(filename);
-        entity.setDsXmlCompl(truncateXmlString(documentToString(doc), 4000));
+        entity.setDsXmlCompl(truncateXmlString(xmlContent, XML_COMPL_MAX_LENGTH));
 
         // Se não tiver número/série definidos, usa padrão
         if (entity.getNrNotaFiscal() == null) {
@@ -289,24 +595,10 @@ public class XmlProcessingService {
         }
     }
 
-    private String cleanCnpj(String cnpj) {
+    String cleanCnpj(String cnpj) {
         if (cnpj == null) return null;
         return cnpj.replaceAll("[^0-9]", "");
     }
-
-    private String documentToString(Document doc) {
-        try {
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            StringWriter writer = new StringWriter();
-            transformer.transform(new DOMSource(doc), new StreamResult(writer));
-            return writer.getBuffer().toString();
-        } catch (Exception e) {
-            log.error("Erro ao converter XML para string", e);
-            return "";
-        }
-    }
 }
 /*public class XmlProcessingService {
 
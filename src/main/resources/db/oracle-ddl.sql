@@ -0,0 +1,50 @@
+-- =====================================================================
+-- Objetos de banco exigidos pela aplicação (spring.jpa.hibernate.ddl-auto=none).
+-- Aplicar manualmente no schema WEBSERVICE.
+-- =====================================================================
+
+-- Sequência do NR_SEQUENCIA (NfXmlEntity). O INCREMENT BY deve ser igual ao allocationSize
+-- do @SequenceGenerator (otimizador pooled do Hibernate). Ajustar o START WITH para um
+-- valor acima do MAX(NR_SEQUENCIA) atual da tabela.
+CREATE SEQUENCE WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS_SEQ
+    START WITH 1
+    INCREMENT BY 50
+    NOCACHE;
+
+-- Chave de duplicidade da nota. Com file.processing.persist-mode=merge, o índice único impede
+-- que dois workers gravem a mesma nota no intervalo entre os MERGEs; a violação (ORA-00001)
+-- é tratada como nota já processada. Remover duplicatas existentes antes de criar.
+CREATE UNIQUE INDEX WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS_UK
+    ON WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS (NR_NOTA_FISCAL, CD_SERIE_NF, NR_ITEM_NF);
+
+-- Reservas de arquivos entre nós (cluster.claim-enabled=true). Cada nó reserva os arquivos
+-- que vai processar; a reserva vence em DT_LEASE_EXPIRA se o nó parar de renová-la
+-- (heartbeat), e então outro nó pode assumir o arquivo. DT_CONCLUSAO marca arquivos já
+-- arquivados: a reserva deixa de ser renovada e só vence.
+CREATE TABLE WEBSERVICE.NF_XML_CLAIM (
+    DS_ARQUIVO       VARCHAR2(1000) NOT NULL,
+    NM_NODE          VARCHAR2(255)  NOT NULL,
+    DT_CLAIM         TIMESTAMP      NOT NULL,
+    DT_LEASE_EXPIRA  TIMESTAMP      NOT NULL,
+    DT_CONCLUSAO     TIMESTAMP,
+    CONSTRAINT NF_XML_CLAIM_PK PRIMARY KEY (DS_ARQUIVO)
+);
+
+CREATE INDEX WEBSERVICE.NF_XML_CLAIM_NODE_IX ON WEBSERVICE.NF_XML_CLAIM (NM_NODE);
+
+-- Novas tentativas de arquivos com falha (file.retry.enabled=true). Cada arquivo que falhou sem
+-- defeito próprio (banco ou FTP fora do ar, erro desconhecido) fica na origem com uma linha aqui:
+-- tentativas, classe do último erro e data a partir da qual volta a ser processado. A linha é
+-- apagada quando o arquivo é arquivado.
+CREATE TABLE WEBSERVICE.NF_XML_RETRY (
+    DS_ARQUIVO            VARCHAR2(1000) NOT NULL,
+    DS_ORIGEM             VARCHAR2(1000) NOT NULL,
+    QT_TENTATIVAS         NUMBER(10)     NOT NULL,
+    NM_CLASSE_ERRO        VARCHAR2(255),
+    DS_ERRO               VARCHAR2(1000),
+    DT_ULTIMA_FALHA       TIMESTAMP      NOT NULL,
+    DT_PROXIMA_TENTATIVA  TIMESTAMP      NOT NULL,
+    CONSTRAINT NF_XML_RETRY_PK PRIMARY KEY (DS_ARQUIVO)
+);
+
+CREATE INDEX WEBSERVICE.NF_XML_RETRY_ORIGEM_IX ON WEBSERVICE.NF_XML_RETRY (DS_ORIGEM);
@@ -0,0 +1,96 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AdaptiveSchedulerTest {
+
+    private final NfeProcessingService nfeProcessingService = mock(NfeProcessingService.class);
+    private final ProcessingConfig config = new ProcessingConfig();
+    private final TaskScheduler taskScheduler = mock(TaskScheduler.class);
+    private final AdaptiveScheduler scheduler = new AdaptiveScheduler(nfeProcessingService, config,
+            taskScheduler, mock(ReadinessService.class));
+
+    @Test
+    void loopsImmediatelyWithBacklogAndBacksOffWhenIdle() {
+        cycle(1000, 250, 0);
+        assertThat(scheduler.getCurrentDelay()).isZero();
+        assertThat(scheduler.getBacklog()).isEqualTo(250);
+
+        cycle(250, 0, 0);
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(5000);
+
+        cycle(0, 0, 3);
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(10000);
+        assertThat(scheduler.getDeferred()).isEqualTo(3);
+
+        for (int i = 0; i < 10; i++) {
+            cycle(0, 0, 0);
+        }
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(120000);
+    }
+
+    @Test
+    void filesLeftInPlaceByTheCycleDoNotTriggerAnImmediateCycle() {
+        cycle(0, 0, 2, 0);
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(10000);
+        assertThat(scheduler.getBacklog()).isEqualTo(2);
+
+        cycle(0, 0, 2, 0);
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(20000);
+
+        cycle(10, 0, 2, 0);
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(5000);
+    }
+
+    @Test
+    void filesCutByTheCycleDeadlineStartTheNextCycleImmediately() {
+        cycle(0, 0, 0, 0);
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(10000);
+
+        // 40 arquivos concluídos, 60 nem começaram antes de cycle-max-duration e 1 falhou na origem
+        cycle(40, 60, 1, 0);
+        assertThat(scheduler.getCurrentDelay()).isZero();
+        assertThat(scheduler.getBacklog()).isEqualTo(61);
+    }
+
+    @Test
+    void anErrorInTheCycleStillSchedulesTheNextOne() {
+        OutOfMemoryError oom = new OutOfMemoryError("Java heap space");
+        when(nfeProcessingService.processXmlFiles()).thenThrow(oom);
+
+        assertThatThrownBy(scheduler::runCycle).isSameAs(oom);
+
+        verify(taskScheduler).schedule(any(Runnable.class), any(Instant.class));
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(10000);
+    }
+
+    @Test
+    void fixedDelayWhenAdaptiveSchedulingIsDisabled() {
+        config.setAdaptiveScheduling(false);
+
+        cycle(1000, 250, 0);
+
+        assertThat(scheduler.getCurrentDelay()).isEqualTo(60000);
+    }
+
+    private void cycle(int settled, int remaining, int deferred) {
+        cycle(settled, remaining, 0, deferred);
+    }
+
+    private void cycle(int settled, int remaining, int unsettled, int deferred) {
+        when(nfeProcessingService.processXmlFiles())
+                .thenReturn(new NfeProcessingService.CycleResult(settled, remaining, unsettled, deferred));
+        scheduler.runCycle();
+    }
+}
@@ -0,0 +1,56 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import financeiro.nf.config.ProcessingConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ArchiveLayoutTest {
+
+    private static final ZoneId ZONE = ZoneId.of("America/Sao_Paulo");
+
+    private final FtpSession session = mock(FtpSession.class);
+    private final FtpConfig ftpConfig = new FtpConfig();
+    private final ProcessingMetrics metrics = new ProcessingMetrics(new SimpleMeterRegistry());
+    private final ArchiveLayout layout = new ArchiveLayout(ftpConfig, metrics,
+            new ResilienceService(ftpConfig, new ProcessingConfig(), metrics),
+            Clock.fixed(LocalDateTime.of(2024, 3, 15, 10, 0).atZone(ZONE).toInstant(), ZONE));
+
+    @Test
+    void movesIntoDatePartitionCreatingEachLevelOnce() throws IOException {
+        String first = layout.moveToProcessed(session, "/nfs", "a.xml");
+        String second = layout.moveToProcessed(session, "/nfs", "b.xml");
+
+        assertThat(first).isEqualTo("/nfs/processed/2024/03/15/a.xml");
+        assertThat(second).isEqualTo("/nfs/processed/2024/03/15/b.xml");
+        verify(session).rename("/nfs/a.xml", "/nfs/processed/2024/03/15/a.xml");
+        verify(session).makeDirectory("/nfs/processed/2024/03/15");
+        // /nfs, processed, 2024, 03, 15: um MKD por nível, só no primeiro move
+        verify(session, times(5)).makeDirectory(anyString());
+    }
+
+    @Test
+    void errorsUseConfiguredRootWithoutPathReplace() throws IOException {
+        ftpConfig.setErrorDir("/nfs/error");
+
+        assertThat(layout.moveToError(session, "/nfs", "a.xml")).isEqualTo("/nfs/error/2024/03/15/a.xml");
+    }
+
+    @Test
+    void emptyPatternKeepsFlatFolder() throws IOException {
+        ftpConfig.setArchivePartitionPattern("");
+
+        assertThat(layout.moveToProcessed(session, "/nfs", "a.xml")).isEqualTo("/nfs/processed/a.xml");
+    }
+}
@@ -0,0 +1,77 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ClusterConfig;
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.repositories.NfXmlRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DuplicateKeyIndexTest {
+
+    private final NfXmlRepository repository = mock(NfXmlRepository.class);
+    private final ClusterConfig clusterConfig = new ClusterConfig();
+    private final DuplicateKeyIndex index = newIndex();
+
+    @Test
+    void goesToDatabaseUntilWarmedUp() {
+        AtomicInteger dbCalls = new AtomicInteger();
+
+        assertThat(index.isDuplicate("1", "E", () -> dbCalls.incrementAndGet() < 0)).isFalse();
+        assertThat(dbCalls).hasValue(1);
+        assertThat(index.isReady()).isFalse();
+    }
+
+    @Test
+    void answersFromMemoryAfterWarmUp() {
+        when(repository.streamAllKeys()).thenReturn(Stream.of(
+                new Object[]{"100", "E"}, new Object[]{"200", "1"}));
+        index.warmUp();
+        AtomicInteger dbCalls = new AtomicInteger();
+
+        // Chave ausente do Bloom: nova, sem ir ao banco
+        assertThat(index.isDuplicate("999", "E", () -> dbCalls.incrementAndGet() < 0)).isFalse();
+        assertThat(dbCalls).hasValue(0);
+
+        // Chave carregada: possível positivo confirmado no banco e depois lembrado
+        assertThat(index.isDuplicate("100", "E", () -> dbCalls.incrementAndGet() > 0)).isTrue();
+        assertThat(index.isDuplicate("100", "E", () -> dbCalls.incrementAndGet() > 0)).isTrue();
+        assertThat(dbCalls).hasValue(1);
+    }
+
+    @Test
+    void registeredKeysAreDuplicatesWithoutDatabase() {
+        when(repository.streamAllKeys()).thenReturn(Stream.empty());
+        index.warmUp();
+
+        index.register("300", "E");
+
+        assertThat(index.isDuplicate("300", "E", () -> {
+            throw new AssertionError("não deveria consultar o banco");
+        })).isTrue();
+    }
+
+    @Test
+    void withSeveralNodesKeysMissingFromTheBloomStillGoToTheDatabase() {
+        clusterConfig.setClaimEnabled(true);
+        DuplicateKeyIndex clustered = newIndex();
+        clustered.warmUpAsync();
+        AtomicInteger dbCalls = new AtomicInteger();
+
+        // Gravada por outro nó depois da subida: só o banco sabe
+        assertThat(clustered.isDuplicate("400", "E", () -> dbCalls.incrementAndGet() > 0)).isTrue();
+        assertThat(clustered.isDuplicate("400", "E", () -> dbCalls.incrementAndGet() > 0)).isTrue();
+        assertThat(dbCalls).hasValue(1);
+    }
+
+    private DuplicateKeyIndex newIndex() {
+        return new DuplicateKeyIndex(repository, mock(PlatformTransactionManager.class), new ProcessingConfig(),
+                clusterConfig);
+    }
+}
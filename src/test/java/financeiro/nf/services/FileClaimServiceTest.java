@@ -0,0 +1,91 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ClusterConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileClaimServiceTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final FileClaimService service = newService();
+
+    @Test
+    void onlyFilesWhoseMergeTouchedARowAreClaimed() {
+        when(jdbcTemplate.batchUpdate(eq(FileClaimService.CLAIM_SQL), anyList(), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class)))
+                .thenReturn(new int[][]{{1, 0, 1}});
+
+        List<String> claimed = service.claim("/nfs", List.of("a.xml", "b.xml", "c.xml"));
+
+        assertThat(claimed).containsExactly("a.xml", "c.xml");
+    }
+
+    @Test
+    void concurrentInsertByAnotherNodeFallsBackToOneByOne() {
+        when(jdbcTemplate.batchUpdate(eq(FileClaimService.CLAIM_SQL), anyList(), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class)))
+                .thenThrow(new DuplicateKeyException("ORA-00001"));
+        when(jdbcTemplate.update(eq(FileClaimService.CLAIM_SQL), any(PreparedStatementSetter.class)))
+                .thenReturn(1)
+                .thenThrow(new DuplicateKeyException("ORA-00001"))
+                .thenReturn(0);
+
+        List<String> claimed = service.claim("/nfs", List.of("a.xml", "b.xml", "c.xml"));
+
+        assertThat(claimed).containsExactly("a.xml");
+    }
+
+    @Test
+    void archivedFilesStayClaimedWhileFilesLeftInPlaceAreReleased() {
+        // H2 em modo Oracle com o mesmo schema do teste de carga
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:nf-claim;MODE=Oracle;DB_CLOSE_DELAY=-1");
+        new ResourceDatabasePopulator(new ClassPathResource("db/h2-schema.sql")).execute(dataSource);
+        JdbcTemplate database = new JdbcTemplate(dataSource);
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        FileClaimService first = newService("nf-01", database, transaction);
+        FileClaimService second = newService("nf-02", database, transaction);
+
+        assertThat(first.claim("/nfs", List.of("archived.xml", "failed.xml")))
+                .containsExactly("archived.xml", "failed.xml");
+        first.complete("/nfs", List.of("archived.xml"));
+        first.release("/nfs", List.of("failed.xml"));
+
+        // Listagem do outro nó feita antes do arquivamento: só o que ficou na origem é reservado
+        assertThat(second.claim("/nfs", List.of("archived.xml", "failed.xml"))).containsExactly("failed.xml");
+        first.heartbeat();
+        assertThat(database.queryForObject("SELECT COUNT(*) FROM WEBSERVICE.NF_XML_CLAIM"
+                + " WHERE DS_ARQUIVO = '/nfs/archived.xml' AND DT_CONCLUSAO IS NOT NULL", Integer.class)).isEqualTo(1);
+    }
+
+    private FileClaimService newService() {
+        return newService("nf-01", jdbcTemplate, new TransactionTemplate(mock(PlatformTransactionManager.class)));
+    }
+
+    private static FileClaimService newService(String nodeId, JdbcTemplate jdbcTemplate,
+                                               TransactionTemplate transactionTemplate) {
+        ClusterConfig config = new ClusterConfig();
+        config.setClaimEnabled(true);
+        config.setNodeId(nodeId);
+        return new FileClaimService(config, jdbcTemplate, transactionTemplate);
+    }
+}
@@ -0,0 +1,131 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.SpoolConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileSpoolTest {
+
+    private static final byte[] CONTENT = "<NOTA><NUMERO>1</NUMERO></NOTA>".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private final FtpService ftpService = mock(FtpService.class);
+    private final FtpSession session = mock(FtpSession.class);
+
+    @Test
+    void interruptedTransferIsResumedFromTheLastByte() throws Exception {
+        FileSpool spool = spool(1024);
+        when(ftpService.openSession()).thenReturn(session);
+        when(session.size("/nfs/nf.xml")).thenReturn((long) CONTENT.length);
+        // A primeira transferência cai depois de 10 bytes; a segunda entrega o resto
+        when(session.retrieveFile("/nfs/nf.xml", 0)).thenReturn(failingAfter(10));
+        when(session.retrieveFile("/nfs/nf.xml", 10))
+                .thenReturn(new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, 10, CONTENT.length)));
+
+        try (FileSpool.SpooledFile file = spool.fetch("/nfs/nf.xml"); InputStream is = file.open()) {
+            assertThat(is.readAllBytes()).isEqualTo(CONTENT);
+            assertThat(spool.getUsedBytes()).isEqualTo(CONTENT.length);
+        }
+
+        verify(session).retrieveFile("/nfs/nf.xml", 10);
+        assertThat(spool.getUsedBytes()).isZero();
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void transferShorterThanSizeFailsAfterTheLastAttempt() throws Exception {
+        FileSpool spool = spool(1024);
+        when(ftpService.openSession()).thenReturn(session);
+        when(session.size(anyString())).thenReturn(CONTENT.length + 100L);
+        when(session.retrieveFile(anyString(), anyLong())).thenAnswer(invocation -> {
+            long offset = invocation.getArgument(1);
+            return new ByteArrayInputStream(offset == 0 ? CONTENT : new byte[0]);
+        });
+
+        assertThatThrownBy(() -> spool.fetch("/nfs/nf.xml"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("3 tentativas");
+        verify(session, times(2)).retrieveFile(anyString(), eq((long) CONTENT.length));
+        assertThat(spool.getUsedBytes()).isZero();
+    }
+
+    @Test
+    void fullSpoolMakesTheNextDownloadWaitWithoutHoldingTheSessionPermit() throws Exception {
+        FileSpool spool = spool(CONTENT.length);
+        when(ftpService.openSession()).thenReturn(session);
+        when(session.size(anyString())).thenReturn((long) CONTENT.length);
+        when(session.retrieveFile(anyString(), anyLong()))
+                .thenAnswer(invocation -> new ByteArrayInputStream(CONTENT));
+        Semaphore sessionPermit = new Semaphore(1);
+
+        FileSpool.SpooledFile first = spool.fetch("/nfs/a.xml");
+        Thread second = Thread.ofVirtual().start(() -> {
+            sessionPermit.acquireUninterruptibly();
+            try (FileSpool.SpooledFile file = spool.fetch("/nfs/b.xml", sessionPermit)) {
+                assertThat(file.open().readAllBytes()).isEqualTo(CONTENT);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                sessionPermit.release();
+            }
+        });
+
+        Thread.sleep(100);
+        assertThat(second.isAlive()).isTrue();
+        // Vaga devolvida durante a espera por espaço
+        assertThat(sessionPermit.availablePermits()).isEqualTo(1);
+        first.close();
+        second.join(5000);
+        assertThat(second.isAlive()).isFalse();
+        assertThat(sessionPermit.availablePermits()).isEqualTo(1);
+        assertThat(spool.getUsedBytes()).isZero();
+    }
+
+    private FileSpool spool(long maxBytes) throws IOException {
+        SpoolConfig config = new SpoolConfig();
+        config.setEnabled(true);
+        config.setDirectory(directory.toString());
+        config.setMaxBytes(maxBytes);
+        FileSpool spool = new FileSpool(config, ftpService, new ProcessingMetrics(new SimpleMeterRegistry()));
+        spool.prepare();
+        return spool;
+    }
+
+    private static InputStream failingAfter(int bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(CONTENT, 0, bytes)) {
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read < 0) {
+                    throw new IOException("Connection reset");
+                }
+                return read;
+            }
+        };
+    }
+}
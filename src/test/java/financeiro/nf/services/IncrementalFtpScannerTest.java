@@ -0,0 +1,142 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IncrementalFtpScannerTest {
+
+    private static final String DIR = "/nfs/NFe";
+    private static final long NOW = 10_000_000;
+
+    private final FtpSession session = mock(FtpSession.class);
+    private final FtpConfig ftpConfig = new FtpConfig();
+    private final AtomicLong clock = new AtomicLong(NOW);
+    private final IncrementalFtpScanner scanner = new IncrementalFtpScanner(ftpConfig, clock::get);
+    private final List<FTPFile> listing = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void givenListing() throws IOException {
+        when(session.supportsMlsd()).thenReturn(true);
+        doAnswer(invocation -> {
+            listing.forEach(invocation.<Consumer<FTPFile>>getArgument(3));
+            return null;
+        }).when(session).scanFiles(eq(DIR), anyBoolean(), anyInt(), any(Consumer.class));
+    }
+
+    @Test
+    void emitsOnlyNewOrChangedXmls() throws IOException {
+        listing.add(file("b.xml", 100, 2000));
+        listing.add(file("a.xml", 100, 1000));
+        listing.add(file("notas.txt", 10, 1000));
+        listing.add(directory("processed"));
+
+        assertThat(scanner.scan(session, DIR).files()).containsExactly("a.xml", "b.xml");
+        assertThat(scanner.scan(session, DIR).files()).isEmpty();
+
+        // b.xml regravado e um arquivo novo, ambos antigos o bastante para o período de silêncio
+        listing.set(0, file("b.xml", 250, 2000));
+        listing.add(file("c.xml", 100, 3000));
+
+        assertThat(scanner.scan(session, DIR).files()).containsExactly("b.xml", "c.xml");
+    }
+
+    @Test
+    void forgottenFilesAreEmittedAgain() throws IOException {
+        listing.add(file("a.xml", 100, 1000));
+        scanner.scan(session, DIR);
+
+        scanner.forget(DIR, List.of("a.xml"));
+
+        assertThat(scanner.scan(session, DIR).files()).containsExactly("a.xml");
+    }
+
+    @Test
+    void fileStillBeingUploadedIsDeferredUntilUnchanged() throws IOException {
+        listing.add(file("a.xml", 100, NOW - 1000));
+
+        IncrementalFtpScanner.ScanResult first = scanner.scan(session, DIR);
+        assertThat(first.files()).isEmpty();
+        assertThat(first.deferred()).isEqualTo(1);
+
+        // Cresceu desde a última listagem: continua aguardando
+        clock.addAndGet(5_000);
+        listing.set(0, file("a.xml", 400, NOW - 500));
+        assertThat(scanner.scan(session, DIR).files()).isEmpty();
+
+        // Mesmo tamanho e data por todo o stable-unchanged-period
+        clock.addAndGet(ftpConfig.getStableUnchangedPeriod());
+        assertThat(scanner.scan(session, DIR).files()).containsExactly("a.xml");
+    }
+
+    @Test
+    void backToBackListingsDoNotProveTheUploadFinished() throws IOException {
+        listing.add(file("a.xml", 100, NOW - 1000));
+
+        assertThat(scanner.scan(session, DIR).files()).isEmpty();
+        clock.addAndGet(5);
+        assertThat(scanner.scan(session, DIR).files()).isEmpty();
+
+        clock.addAndGet(ftpConfig.getStableUnchangedPeriod());
+        assertThat(scanner.scan(session, DIR).files()).containsExactly("a.xml");
+    }
+
+    @Test
+    void markerReleasesFileImmediatelyAndIsReportedOnceArchived() throws IOException {
+        listing.add(file("a.xml", 100, NOW - 1000));
+        listing.add(file("a.xml.done", 0, NOW - 1000));
+
+        assertThat(scanner.scan(session, DIR).files()).containsExactly("a.xml");
+
+        listing.remove(0);
+        IncrementalFtpScanner.ScanResult afterArchive = scanner.scan(session, DIR);
+        assertThat(afterArchive.orphanMarkers()).containsExactly("a.xml.done");
+    }
+
+    @Test
+    void requireMarkerIgnoresStableFilesWithoutMarker() throws IOException {
+        ftpConfig.setStableRequireMarker(true);
+        listing.add(file("a.xml", 100, 1000));
+        listing.add(file("b.xml", 100, 1000));
+        listing.add(file("b.OK", 0, 1000));
+
+        assertThat(scanner.scan(session, DIR).files()).containsExactly("b.xml");
+        assertThat(scanner.scan(session, DIR).files()).isEmpty();
+    }
+
+    private static FTPFile file(String name, long size, long modifiedAt) {
+        FTPFile file = new FTPFile();
+        file.setName(name);
+        file.setType(FTPFile.FILE_TYPE);
+        file.setSize(size);
+        Calendar timestamp = Calendar.getInstance();
+        timestamp.setTimeInMillis(modifiedAt);
+        file.setTimestamp(timestamp);
+        return file;
+    }
+
+    private static FTPFile directory(String name) {
+        FTPFile file = new FTPFile();
+        file.setName(name);
+        file.setType(FTPFile.DIRECTORY_TYPE);
+        return file;
+    }
+}
@@ -0,0 +1,109 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.LocalSourceConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class LocalDirectorySourceTest {
+
+    @TempDir
+    Path directory;
+
+    private final XmlProcessingService xmlProcessingService = mock(XmlProcessingService.class);
+    private LocalDirectorySource source;
+
+    @AfterEach
+    void stop() {
+        if (source != null) {
+            source.stop();
+        }
+    }
+
+    @Test
+    void processesExistingAndNewFilesAndArchivesThem() throws Exception {
+        Files.writeString(directory.resolve("existing.xml"), "<NOTA/>");
+        doThrow(new IOException("Erro ao parsear XML bad.xml"))
+                .when(xmlProcessingService).processXml(any(InputStream.class), eq("bad.xml"));
+        start();
+
+        Files.writeString(directory.resolve("new.xml"), "<NOTA/>", StandardCharsets.UTF_8);
+        Files.writeString(directory.resolve("bad.xml"), "<NOTA", StandardCharsets.UTF_8);
+        Files.writeString(directory.resolve("notes.txt"), "ignored", StandardCharsets.UTF_8);
+
+        String partition = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+        Path processed = directory.resolve("processed").resolve(partition);
+        Path error = directory.resolve("error").resolve(partition);
+
+        awaitFile(processed.resolve("existing.xml"));
+        awaitFile(processed.resolve("new.xml"));
+        awaitFile(error.resolve("bad.xml"));
+        assertThat(directory.resolve("notes.txt")).exists();
+        assertThat(directory.resolve("new.xml")).doesNotExist();
+    }
+
+    @Test
+    void resentFileDoesNotOverwriteTheOneAlreadyArchived() throws Exception {
+        String partition = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+        Path processed = directory.resolve("processed").resolve(partition);
+        Files.createDirectories(processed);
+        Files.writeString(processed.resolve("nf.xml"), "<NOTA>1</NOTA>");
+        Files.writeString(directory.resolve("nf.xml"), "<NOTA>2</NOTA>");
+        start();
+
+        awaitFile(processed.resolve("nf-1.xml"));
+        assertThat(processed.resolve("nf.xml")).hasContent("<NOTA>1</NOTA>");
+        assertThat(processed.resolve("nf-1.xml")).hasContent("<NOTA>2</NOTA>");
+    }
+
+    @Test
+    void fileStillBeingWrittenWaitsUntilItStopsChanging() throws Exception {
+        // Sem eventos (como um arquivo de outro cliente NFS) só a data de alteração indica escrita
+        Path remote = directory.resolve("remote.xml");
+        Files.writeString(remote, "<NOTA/>");
+        Files.setLastModifiedTime(remote, FileTime.fromMillis(System.currentTimeMillis() + 500));
+        start();
+
+        Thread.sleep(300);
+        assertThat(remote).exists();
+        String partition = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+        awaitFile(directory.resolve("processed").resolve(partition).resolve("remote.xml"));
+    }
+
+    private void start() {
+        LocalSourceConfig config = new LocalSourceConfig();
+        config.setEnabled(true);
+        config.setDirectory(directory.toString());
+        config.setSettleDelay(50);
+        config.setRescanInterval(100);
+        RetryLedgerService retryLedger = mock(RetryLedgerService.class);
+        source = new LocalDirectorySource(config, new IngestionProcessor(xmlProcessingService,
+                mock(XmlBundleProcessor.class), retryLedger, new ProcessingMetrics(new SimpleMeterRegistry())),
+                retryLedger);
+        source.start();
+    }
+
+    private static void awaitFile(Path path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(path) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(path).exists();
+    }
+}
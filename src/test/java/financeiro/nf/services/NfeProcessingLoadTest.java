@@ -0,0 +1,353 @@
+package financeiro.nf.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Teste de carga de ponta a ponta sem rede: um servidor FTP embutido (Apache FtpServer) com
+ * {@code load.files} XMLs gerados e um H2 em modo Oracle com a tabela da {@code NfXmlEntity}.
+ * Roda ciclos do {@link NfeProcessingService} até todos os arquivos serem arquivados e registra
+ * arquivos/s, p50/p99 por arquivo, comandos FTP e idas ao banco.
+ * <p>
+ * Fora do {@code mvn test}; rodar com {@code mvn -Pload-test test -Dload.files=5000 -Dload.mode=pipeline}
+ * ({@code load.mode}: {@code pipeline}, {@code virtual} ou {@code sequential}).
+ */
+@Tag("load")
+// Log por arquivo/comando SQL distorce a medição (e o relatório sai em WARN)
+@SpringBootTest(properties = {
+        "logging.level.financeiro.nf=WARN",
+        "logging.level.org.hibernate.SQL=WARN",
+        "logging.level.org.hibernate.type.descriptor.sql.BasicBinder=WARN",
+        "logging.level.com.zaxxer.hikari=INFO",
+        "logging.level.org.apache.ftpserver=WARN"
+})
+@Slf4j
+class NfeProcessingLoadTest {
+
+    private static final int FILES = Integer.getInteger("load.files", 1000);
+    private static final String MODE = System.getProperty("load.mode", "pipeline");
+    private static final int MAX_IDLE_CYCLES = 3;
+
+    private static final Map<String, LongAdder> FTP_COMMANDS = new ConcurrentHashMap<>();
+    private static final AtomicLong DB_ROUND_TRIPS = new AtomicLong();
+
+    private static Path ftpRoot;
+    private static FtpServer ftpServer;
+
+    @MockitoBean
+    private AdaptiveScheduler adaptiveScheduler;
+
+    @Autowired
+    private NfeProcessingService nfeProcessingService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void environment(DynamicPropertyRegistry registry) throws IOException, FtpException {
+        ftpRoot = Files.createTempDirectory("nf-load-ftp");
+        seed(ftpRoot.resolve("nfs"), FILES);
+        int port = startFtpServer(ftpRoot);
+
+        registry.add("ftp.host", () -> "127.0.0.1");
+        registry.add("ftp.port", () -> port);
+        registry.add("ftp.username", () -> "load");
+        registry.add("ftp.password", () -> "load");
+        registry.add("ftp.xmls-dir", () -> "/nfs");
+        registry.add("ftp.processed-dir", () -> "/nfs/processed");
+        registry.add("ftp.error-dir", () -> "/nfs/error");
+
+        registry.add("spring.datasource.url", () -> "jdbc:h2:mem:nf-load;MODE=Oracle;DB_CLOSE_DELAY=-1");
+        registry.add("spring.datasource.driver-class-name", () -> "org.h2.Driver");
+        registry.add("spring.datasource.username", () -> "sa");
+        registry.add("spring.datasource.password", () -> "");
+        registry.add("spring.jpa.database-platform", () -> "org.hibernate.dialect.H2Dialect");
+        registry.add("spring.jpa.show-sql", () -> "false");
+        registry.add("spring.sql.init.mode", () -> "always");
+        registry.add("spring.sql.init.schema-locations", () -> "classpath:db/h2-schema.sql");
+
+        registry.add("file.processing.virtual-threads-enabled", () -> "virtual".equals(MODE));
+        registry.add("file.processing.pipeline-enabled", () -> "pipeline".equals(MODE));
+        registry.add("management.metrics.distribution.percentiles.nf.files.latency", () -> "0.5,0.99");
+    }
+
+    @AfterAll
+    static void stopFtpServer() {
+        if (ftpServer != null) {
+            ftpServer.stop();
+        }
+    }
+
+    @Test
+    void processesSeededDirectory() throws IOException {
+        FTP_COMMANDS.clear();
+        DB_ROUND_TRIPS.set(0);
+
+        long start = System.nanoTime();
+        int cycles = 0;
+        int idleCycles = 0;
+        int settled = 0;
+        while (settled < FILES && idleCycles < MAX_IDLE_CYCLES) {
+            NfeProcessingService.CycleResult cycle = nfeProcessingService.processXmlFiles();
+            cycles++;
+            settled += cycle.settled();
+            idleCycles = cycle.settled() == 0 ? idleCycles + 1 : 0;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        report(cycles, settled, elapsedNanos);
+
+        Integer rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS",
+                Integer.class);
+        assertThat(settled).isEqualTo(FILES);
+        assertThat(rows).isEqualTo(FILES);
+        assertThat(countXml(ftpRoot.resolve("nfs/processed"))).isEqualTo(FILES);
+        assertThat(countXml(ftpRoot.resolve("nfs"))).isEqualTo(FILES);
+    }
+
+    private void report(int cycles, int settled, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        Timer latency = meterRegistry.get("nf.files.latency").timer();
+        HistogramSnapshot snapshot = latency.takeSnapshot();
+        Map<Double, Double> percentiles = new TreeMap<>();
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            percentiles.put(value.percentile(), value.value(TimeUnit.MILLISECONDS));
+        }
+        Map<String, Long> commands = new TreeMap<>();
+        FTP_COMMANDS.forEach((command, count) -> commands.put(command, count.sum()));
+        long totalCommands = commands.values().stream().mapToLong(Long::longValue).sum();
+
+        log.warn("""
+
+                        📊 Teste de carga ({} arquivos, modo {})
+                           ciclos:              {}
+                           arquivos arquivados: {} em {} s ({} arquivos/s)
+                           latência por arquivo p50 {} ms, p99 {} ms (máx {} ms)
+                           comandos FTP:        {} ({} por arquivo) {}
+                           idas ao banco:       {} ({} por arquivo)""",
+                FILES, MODE, cycles, settled, format(seconds), format(settled / seconds),
+                format(percentiles.getOrDefault(0.5, Double.NaN)), format(percentiles.getOrDefault(0.99, Double.NaN)),
+                format(latency.max(TimeUnit.MILLISECONDS)),
+                totalCommands, format((double) totalCommands / Math.max(1, settled)), commands,
+                DB_ROUND_TRIPS.get(), format((double) DB_ROUND_TRIPS.get() / Math.max(1, settled)));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static long countXml(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> file.toString().endsWith(".xml")).count();
+        }
+    }
+
+    /**
+     * Metade NFS-e, metade NFe (Reg20), com números únicos e data de modificação antiga o
+     * bastante para o MLSD já considerar o upload concluído.
+     */
+    private static void seed(Path directory, int count) throws IOException {
+        Files.createDirectories(directory);
+        FileTime modifiedAt = FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS));
+        for (int i = 1; i <= count; i++) {
+            boolean nfse = i % 2 == 0;
+            Path file = directory.resolve(String.format("%s-%07d.xml", nfse ? "nfse" : "nfe", i));
+            Files.writeString(file, nfse ? nfse(i) : nfe(i), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(file, modifiedAt);
+        }
+    }
+
+    private static String nfse(int number) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <NFSE>
+                    <NOTAS>
+                        <NOTA>
+                            <NUMERO>%d</NUMERO>
+                            <SERIE>E</SERIE>
+                            <DT_COMPETENCIA>2024-03-15</DT_COMPETENCIA>
+                            <PRESTADOR>
+                                <CNPJ>12.345.678/0001-90</CNPJ>
+                            </PRESTADOR>
+                            <TOMADOR>
+                                <TOM_CPF_CNPJ>98.765.432/0001-10</TOM_CPF_CNPJ>
+                            </TOMADOR>
+                            <VALORES>
+                                <VL_SERVICO>1.500,00</VL_SERVICO>
+                                <VL_DESCONTO_INCONDICIONADO>10,50</VL_DESCONTO_INCONDICIONADO>
+                                <VL_LIQUIDO_NFSE>1.489,50</VL_LIQUIDO_NFSE>
+                            </VALORES>
+                            <DISCRIMINACAO>Serviços médicos prestados conforme contrato, parcela %d</DISCRIMINACAO>
+                        </NOTA>
+                    </NOTAS>
+                </NFSE>
+                """.formatted(number, number);
+    }
+
+    private static String nfe(int number) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <ns:SDTNFe xmlns:ns="NFe">
+                    <ns:Reg20>
+                        <ns:Reg20Item>
+                            <ns:TipoNf>N</ns:TipoNf>
+                            <ns:NumNf>%d</ns:NumNf>
+                            <ns:SerNf>1</ns:SerNf>
+                            <ns:DtEmiNf>05/02/2024</ns:DtEmiNf>
+                            <ns:CpfCnpjPre>11.222.333/0001-44</ns:CpfCnpjPre>
+                            <ns:CpfCnpjTom>555.666.777-88</ns:CpfCnpjTom>
+                            <ns:VlNFS>2.340,10</ns:VlNFS>
+                        </ns:Reg20Item>
+                    </ns:Reg20>
+                </ns:SDTNFe>
+                """.formatted(number);
+    }
+
+    private static int startFtpServer(Path root) throws FtpException {
+        BaseUser user = new BaseUser();
+        user.setName("load");
+        user.setPassword("load");
+        user.setHomeDirectory(root.toString());
+        user.setAuthorities(List.<Authority>of(new WritePermission()));
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        serverFactory.getUserManager().save(user);
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress("127.0.0.1");
+        listenerFactory.setPort(0);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.getFtplets().put("counter", new DefaultFtplet() {
+            @Override
+            public FtpletResult beforeCommand(FtpSession session, FtpRequest request) {
+                FTP_COMMANDS.computeIfAbsent(request.getCommand(), command -> new LongAdder()).increment();
+                return FtpletResult.DEFAULT;
+            }
+        });
+
+        ftpServer = serverFactory.createServer();
+        ftpServer.start();
+        return serverFactory.getListener("default").getPort();
+    }
+
+    /**
+     * Conta como ida ao banco cada execução de comando, lote, commit e rollback nas conexões
+     * do pool da aplicação.
+     */
+    @TestConfiguration
+    static class RoundTripCounting {
+
+        @Bean
+        static BeanPostProcessor roundTripCountingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource ? new CountingDataSource(dataSource) : bean;
+                }
+            };
+        }
+    }
+
+    private static class CountingDataSource extends DelegatingDataSource {
+
+        CountingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws java.sql.SQLException {
+            return counting(Connection.class, super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws java.sql.SQLException {
+            return counting(Connection.class, super.getConnection(username, password));
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T counting(Class<T> type, T target) {
+            return (T) Proxy.newProxyInstance(CountingDataSource.class.getClassLoader(), new Class<?>[]{type},
+                    (proxy, method, args) -> {
+                        String name = method.getName();
+                        if (name.startsWith("execute") || name.equals("commit") || name.equals("rollback")) {
+                            DB_ROUND_TRIPS.incrementAndGet();
+                        }
+                        Object result;
+                        try {
+                            result = method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        return wrapStatement(result);
+                    });
+        }
+
+        private static Object wrapStatement(Object result) {
+            if (result instanceof CallableStatement statement) {
+                return counting(CallableStatement.class, statement);
+            }
+            if (result instanceof PreparedStatement statement) {
+                return counting(PreparedStatement.class, statement);
+            }
+            if (result instanceof Statement statement) {
+                return counting(Statement.class, statement);
+            }
+            return result;
+        }
+    }
+}
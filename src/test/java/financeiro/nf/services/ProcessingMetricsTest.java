@@ -0,0 +1,36 @@
+package financeiro.nf.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProcessingMetricsTest {
+
+    @Test
+    void failuresAreCountedByTheirCauseAnywhereInTheChain() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProcessingMetrics metrics = new ProcessingMetrics(registry);
+
+        metrics.fileFailed(new IOException("Erro ao processar arquivo a.xml", new DuplicateNfException("1", "E")));
+        metrics.fileFailed(new IOException("Erro ao parsear XML b.xml", new XMLStreamException("ParseError")));
+        metrics.fileFailed(new IOException("Erro de integridade", new DataIntegrityViolationException("ORA-12899")));
+        metrics.fileFailed(new IOException("Connection reset"));
+        metrics.fileFailed(new IllegalStateException());
+        metrics.fileFailed(new DuplicateNfException("2", "E"));
+
+        assertThat(failed(registry, "duplicate")).isEqualTo(2);
+        assertThat(failed(registry, "parse")).isEqualTo(1);
+        assertThat(failed(registry, "database")).isEqualTo(1);
+        assertThat(failed(registry, "io")).isEqualTo(1);
+        assertThat(failed(registry, "other")).isEqualTo(1);
+    }
+
+    private static double failed(SimpleMeterRegistry registry, String cause) {
+        return registry.get("nf.files.failed").tag("cause", cause).counter().count();
+    }
+}
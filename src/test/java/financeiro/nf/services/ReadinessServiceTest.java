@@ -0,0 +1,62 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReadinessServiceTest {
+
+    private final FtpService ftpService = mock(FtpService.class);
+    private final DataSource dataSource = mock(DataSource.class);
+    private final ReadinessService readiness = new ReadinessService(ftpService, dataSource, new ProcessingConfig());
+
+    @Test
+    void staysWaitingUntilBothDependenciesAnswerAndProbesOnlyWhatIsMissing() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(dataSource.getConnection()).thenReturn(connection);
+        FtpSession session = mock(FtpSession.class);
+        when(session.directoryExists(any())).thenReturn(true);
+        when(ftpService.openSession())
+                .thenThrow(new ConnectException("Connection refused"))
+                .thenReturn(session);
+
+        assertThat(readiness.check()).isFalse();
+        assertThat(readiness.isDatabaseReachable()).isTrue();
+        assertThat(readiness.isFtpReachable()).isFalse();
+        assertThat(readiness.getLastError()).contains("Connection refused");
+
+        assertThat(readiness.check()).isTrue();
+        verify(dataSource, times(1)).getConnection();
+    }
+
+    @Test
+    void onReadyRunsOnceDependenciesAnswer() throws SQLException, IOException {
+        Connection connection = mock(Connection.class);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(ftpService.openSession()).thenReturn(mock(FtpSession.class));
+        AtomicBoolean started = new AtomicBoolean();
+        readiness.onReady(() -> started.set(true));
+
+        assertThat(started).isFalse();
+        readiness.awaitDependencies();
+
+        assertThat(started).isTrue();
+        assertThat(readiness.getState()).isEqualTo(ReadinessService.State.READY);
+    }
+}
@@ -0,0 +1,221 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import financeiro.nf.config.ProcessingConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.stream.XMLStreamException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResilienceServiceTest {
+
+    private final List<Long> sleeps = new ArrayList<>();
+    private final MutableClock clock = new MutableClock();
+    private final FtpConfig ftpConfig = new FtpConfig();
+    private final ProcessingConfig processingConfig = new ProcessingConfig();
+    private ResilienceService resilience;
+
+    @Test
+    void connectionFailuresAreRetriedWithExponentialBackoffAndJitter() throws IOException {
+        ftpConfig.setRetryCount(3);
+        ftpConfig.setRetryDelay(1000);
+        ResilienceService resilience = resilience();
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = resilience.callFtp("conexão", () -> {
+            if (calls.incrementAndGet() < 4) {
+                throw new ConnectException("Connection refused");
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls).hasValue(4);
+        // Metade fixa e metade aleatória de 1000, 2000 e 4000 ms
+        assertThat(sleeps).hasSize(3);
+        assertThat(sleeps.get(0)).isBetween(500L, 1000L);
+        assertThat(sleeps.get(1)).isBetween(1000L, 2000L);
+        assertThat(sleeps.get(2)).isBetween(2000L, 4000L);
+    }
+
+    @Test
+    void permanentReplyIsNotRetried() {
+        ResilienceService resilience = resilience();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> resilience.callFtp("rename", () -> {
+            calls.incrementAndGet();
+            throw new FtpService.FtpReplyException("Falha ao mover arquivo no FTP", 550);
+        })).isInstanceOf(FtpService.FtpReplyException.class);
+        assertThat(calls).hasValue(1);
+        assertThat(sleeps).isEmpty();
+    }
+
+    @Test
+    void openCircuitFailsFastUntilTheTrialCallSucceeds() throws IOException {
+        ftpConfig.setRetryCount(0);
+        ftpConfig.setCircuitFailureThreshold(2);
+        ftpConfig.setCircuitOpenDuration(60000);
+        ResilienceService resilience = resilience();
+        AtomicInteger calls = new AtomicInteger();
+        ResilienceService.FtpCall<String> timingOut = () -> {
+            calls.incrementAndGet();
+            throw new SocketTimeoutException("connect timed out");
+        };
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> resilience.callFtp("conexão", timingOut))
+                    .isInstanceOf(SocketTimeoutException.class);
+        }
+        assertThat(resilience.isAnyCircuitOpen()).isTrue();
+        assertThatThrownBy(() -> resilience.callFtp("conexão", timingOut))
+                .isInstanceOf(ResilienceService.CircuitOpenException.class);
+        assertThat(calls).hasValue(2);
+
+        clock.advance(Duration.ofMinutes(1));
+        assertThat(resilience.callFtp("conexão", () -> "ok")).isEqualTo("ok");
+        assertThat(resilience.getFtpCircuit().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void failedTrialCallReopensTheCircuit() {
+        processingConfig.setDbRetryCount(0);
+        processingConfig.setDbCircuitFailureThreshold(1);
+        processingConfig.setDbCircuitOpenDuration(30000);
+        ResilienceService resilience = resilience();
+
+        assertThatThrownBy(() -> resilience.callDatabase("gravação", () -> {
+            throw new CannotGetJdbcConnectionException("Connection is not available");
+        })).isInstanceOf(CannotGetJdbcConnectionException.class);
+        assertThatThrownBy(() -> resilience.callDatabase("gravação", () -> true))
+                .isInstanceOf(TransientDataAccessResourceException.class);
+
+        clock.advance(Duration.ofSeconds(30));
+        assertThatThrownBy(() -> resilience.callDatabase("gravação", () -> {
+            throw new CannotGetJdbcConnectionException("Connection is not available");
+        })).isInstanceOf(CannotGetJdbcConnectionException.class);
+        assertThat(resilience.getDatabaseCircuit().isOpen()).isTrue();
+    }
+
+    @Test
+    void trialCallEndingWithAnUnexpectedErrorDoesNotBlockTheNextTrial() throws IOException {
+        openFtpCircuit();
+
+        assertThatThrownBy(() -> resilience.callFtp("conexão", () -> {
+            throw new IllegalStateException("estado inesperado");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(resilience.getFtpCircuit().getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        assertThat(resilience.callFtp("conexão", () -> "ok")).isEqualTo("ok");
+        assertThat(resilience.getFtpCircuit().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void exhaustedSessionPoolNeitherClosesNorOpensTheCircuit() throws IOException {
+        openFtpCircuit();
+        IOException exhausted = new IOException("Pool FTP esgotado", new NoSuchElementException("Timeout waiting"));
+
+        assertThatThrownBy(() -> resilience.callFtp("conexão", () -> {
+            throw exhausted;
+        })).isSameAs(exhausted);
+        assertThat(resilience.getFtpCircuit().getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(sleeps).isEmpty();
+
+        assertThat(resilience.callFtp("conexão", () -> "ok")).isEqualTo("ok");
+        assertThat(resilience.getFtpCircuit().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void trialCallWithoutAnswerIsReplacedAfterTheProbeTimeout() {
+        CircuitBreaker circuit = new CircuitBreaker("ftp", 1, 60000, 120000, clock);
+        circuit.recordFailure();
+        clock.advance(Duration.ofMinutes(1));
+
+        assertThat(circuit.tryAcquire()).isTrue();
+        assertThat(circuit.tryAcquire()).isFalse();
+
+        clock.advance(Duration.ofMinutes(2));
+        assertThat(circuit.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void integrityViolationIsNotRetriedAndKeepsTheCircuitClosed() {
+        processingConfig.setDbCircuitFailureThreshold(1);
+        ResilienceService resilience = resilience();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> resilience.callDatabase("gravação", () -> {
+            calls.incrementAndGet();
+            throw new DataIntegrityViolationException("ORA-12899");
+        })).isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(calls).hasValue(1);
+        assertThat(resilience.isAnyCircuitOpen()).isFalse();
+    }
+
+    @Test
+    void classifiesTransientFileFailures() {
+        assertThat(ResilienceService.isTransient(new IOException("Erro no download",
+                new SocketTimeoutException("Read timed out")))).isTrue();
+        assertThat(ResilienceService.isTransient(new CannotGetJdbcConnectionException("timeout"))).isTrue();
+        assertThat(ResilienceService.isTransient(new FtpService.FtpReplyException("450 busy", 450))).isTrue();
+        assertThat(ResilienceService.isTransient(new IOException("Erro ao parsear XML",
+                new XMLStreamException("Unexpected EOF")))).isFalse();
+        assertThat(ResilienceService.isTransient(new DuplicateNfException("1", "E"))).isFalse();
+    }
+
+    private void openFtpCircuit() {
+        ftpConfig.setRetryCount(0);
+        ftpConfig.setCircuitFailureThreshold(1);
+        resilience = resilience();
+        assertThatThrownBy(() -> resilience.callFtp("conexão", () -> {
+            throw new SocketTimeoutException("connect timed out");
+        })).isInstanceOf(SocketTimeoutException.class);
+        clock.advance(Duration.ofMillis(ftpConfig.getCircuitOpenDuration()));
+    }
+
+    private ResilienceService resilience() {
+        return new ResilienceService(ftpConfig, processingConfig, new ProcessingMetrics(new SimpleMeterRegistry()),
+                clock, sleeps::add);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-03-15T10:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
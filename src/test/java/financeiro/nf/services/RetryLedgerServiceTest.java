@@ -0,0 +1,120 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.RetryConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryLedgerServiceTest {
+
+    private static final String ORIGIN = "ftp:/nfs";
+
+    private static DriverManagerDataSource dataSource;
+
+    private final RetryConfig config = new RetryConfig();
+    private JdbcTemplate jdbcTemplate;
+    private RetryLedgerService ledger;
+
+    @BeforeAll
+    static void createSchema() {
+        // H2 em modo Oracle com o mesmo schema do teste de carga
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:nf-retry;MODE=Oracle;DB_CLOSE_DELAY=-1");
+        new ResourceDatabasePopulator(new ClassPathResource("db/h2-schema.sql")).execute(dataSource);
+    }
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("DELETE FROM WEBSERVICE.NF_XML_RETRY");
+        config.setEnabled(true);
+        ledger = new RetryLedgerService(config, jdbcTemplate,
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)),
+                new ProcessingMetrics(new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void fileFailingOnAnOutageWaitsInPlaceUntilItIsSettled() {
+        IOException outage = new IOException("Erro no download", new SocketTimeoutException("Read timed out"));
+
+        assertThat(ledger.shouldRetry(ORIGIN, "nf.xml", outage)).isTrue();
+        assertThat(ledger.shouldRetry(ORIGIN, "nf.xml", outage)).isTrue();
+
+        Map<String, Object> row = jdbcTemplate.queryForMap("SELECT * FROM WEBSERVICE.NF_XML_RETRY");
+        assertThat(row.get("DS_ARQUIVO")).isEqualTo("ftp:/nfs/nf.xml");
+        assertThat(((Number) row.get("QT_TENTATIVAS")).intValue()).isEqualTo(2);
+        assertThat(row.get("NM_CLASSE_ERRO")).isEqualTo(SocketTimeoutException.class.getName());
+        // Segunda falha: entre metade e o dobro do base-delay
+        assertThat(ledger.delayUntilRetry(ORIGIN, "nf.xml", 0)).isBetween(50_000L, 120_000L);
+
+        RetryLedgerService.Selection selection = ledger.select(ORIGIN, List.of("nf.xml", "new.xml"));
+        assertThat(selection.eligible()).containsExactly("new.xml");
+        assertThat(selection.waiting()).containsExactly("nf.xml");
+
+        ledger.settled(ORIGIN, "nf.xml");
+        assertThat(count()).isZero();
+    }
+
+    @Test
+    void permanentlyBadFilesAreQuarantinedWithoutARetry() {
+        assertThat(ledger.shouldRetry(ORIGIN, "bad.xml", new IOException("Erro ao parsear XML",
+                new XMLStreamException("Unexpected EOF")))).isFalse();
+        assertThat(ledger.shouldRetry(ORIGIN, "dup.xml", new DuplicateNfException("1", "E"))).isFalse();
+        assertThat(ledger.shouldRetry(ORIGIN, "gone.xml",
+                new FtpService.FtpReplyException("550 No such file", 550))).isFalse();
+        assertThat(count()).isZero();
+    }
+
+    @Test
+    void unknownFailureIsQuarantinedOnceTheAttemptsRunOut() {
+        config.setMaxAttempts(2);
+        IllegalStateException failure = new IllegalStateException("estado inesperado");
+
+        assertThat(ledger.shouldRetry(ORIGIN, "nf.xml", failure)).isTrue();
+        assertThat(ledger.shouldRetry(ORIGIN, "nf.xml", failure)).isFalse();
+    }
+
+    @Test
+    void onlyMaxPerCycleRetriesReenterTheCycle() throws InterruptedException {
+        config.setBaseDelay(1);
+        config.setMaxPerCycle(1);
+        IOException outage = new IOException(new SocketTimeoutException("connect timed out"));
+        ledger.shouldRetry(ORIGIN, "a.xml", outage);
+        ledger.shouldRetry(ORIGIN, "b.xml", outage);
+        Thread.sleep(20);
+
+        RetryLedgerService.Selection selection = ledger.select(ORIGIN, List.of("a.xml", "b.xml", "new.xml"));
+
+        assertThat(selection.eligible()).containsExactly("a.xml", "new.xml");
+        assertThat(selection.waiting()).containsExactly("b.xml");
+    }
+
+    @Test
+    void disabledLedgerKeepsOnlyTransientFailuresInPlace() {
+        config.setEnabled(false);
+
+        assertThat(ledger.shouldRetry(ORIGIN, "nf.xml",
+                new IOException(new SocketTimeoutException("Read timed out")))).isTrue();
+        assertThat(ledger.shouldRetry(ORIGIN, "nf.xml", new IllegalStateException("estado inesperado"))).isFalse();
+        assertThat(ledger.select(ORIGIN, List.of("nf.xml")).eligible()).containsExactly("nf.xml");
+        assertThat(count()).isZero();
+    }
+
+    private int count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM WEBSERVICE.NF_XML_RETRY", Integer.class);
+    }
+}
@@ -0,0 +1,101 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VirtualThreadProcessingServiceTest {
+
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final AtomicInteger maxOpenSessions = new AtomicInteger();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger maxActiveConnections = new AtomicInteger();
+    private final AtomicInteger inFlightFiles = new AtomicInteger();
+    private final AtomicInteger maxInFlightFiles = new AtomicInteger();
+
+    @Test
+    void semaphoresCapSessionsConnectionsAndFilesInMemoryWhileEveryFileIsSettled() throws IOException {
+        FtpService ftpService = mock(FtpService.class);
+        when(ftpService.openSession()).thenAnswer(invocation -> newSession());
+        XmlProcessingService xmlProcessingService = mock(XmlProcessingService.class);
+        when(xmlProcessingService.parseXml(any(), anyString())).thenReturn(List.of(new NfXmlEntity()));
+        doAnswer(invocation -> {
+            track(activeConnections, maxActiveConnections);
+            Thread.sleep(5);
+            activeConnections.decrementAndGet();
+            inFlightFiles.decrementAndGet();
+            return null;
+        }).when(xmlProcessingService).persist(any(), anyString());
+        doAnswer(invocation -> {
+            inFlightFiles.decrementAndGet();
+            throw new IOException("Nota fiscal já processada");
+        }).when(xmlProcessingService).persist(any(), eq("nf-7.xml"));
+        ArchiveLayout archiveLayout = mock(ArchiveLayout.class);
+
+        ProcessingConfig processingConfig = new ProcessingConfig();
+        processingConfig.setMaxFtpSessions(2);
+        processingConfig.setMaxDbConnections(3);
+        processingConfig.setMaxInFlightFiles(5);
+        VirtualThreadProcessingService service = new VirtualThreadProcessingService(ftpService,
+                xmlProcessingService, archiveLayout, mock(FileSpool.class), mock(RetryLedgerService.class),
+                new ProcessingMetrics(new SimpleMeterRegistry()), processingConfig, new FtpConfig(), 10);
+
+        List<String> files = IntStream.range(0, 200).mapToObj(i -> "nf-" + i + ".xml").toList();
+        XmlPipelineService.PipelineResult result = service.run(files, "/nfs", Long.MAX_VALUE);
+
+        assertThat(result.processed()).isEqualTo(199);
+        assertThat(result.failed()).isEqualTo(1);
+        assertThat(result.unsettled()).isEmpty();
+        assertThat(maxOpenSessions.get()).isLessThanOrEqualTo(2);
+        assertThat(maxActiveConnections.get()).isLessThanOrEqualTo(3);
+        assertThat(maxInFlightFiles.get()).isLessThanOrEqualTo(5);
+        verify(archiveLayout).moveToError(any(), eq("/nfs"), eq("nf-7.xml"));
+    }
+
+    @Test
+    void filesNotStartedBeforeTheDeadlineStayInPlace() {
+        VirtualThreadProcessingService service = new VirtualThreadProcessingService(mock(FtpService.class),
+                mock(XmlProcessingService.class), mock(ArchiveLayout.class), mock(FileSpool.class),
+                mock(RetryLedgerService.class), new ProcessingMetrics(new SimpleMeterRegistry()),
+                new ProcessingConfig(), new FtpConfig(), 10);
+
+        XmlPipelineService.PipelineResult result = service.run(List.of("a.xml", "b.xml"), "/nfs", 0);
+
+        assertThat(result.unsettled()).containsExactly("a.xml", "b.xml");
+        assertThat(result.notStarted()).containsExactly("a.xml", "b.xml");
+    }
+
+    private FtpSession newSession() throws IOException {
+        track(openSessions, maxOpenSessions);
+        FtpSession session = mock(FtpSession.class);
+        when(session.retrieveFile(anyString())).thenAnswer(invocation -> {
+            track(inFlightFiles, maxInFlightFiles);
+            Thread.sleep(2);
+            return new ByteArrayInputStream("<NOTA/>".getBytes());
+        });
+        doAnswer(invocation -> openSessions.decrementAndGet()).when(session).close();
+        return session;
+    }
+
+    private static void track(AtomicInteger active, AtomicInteger max) {
+        int current = active.incrementAndGet();
+        max.accumulateAndGet(current, Math::max);
+    }
+}
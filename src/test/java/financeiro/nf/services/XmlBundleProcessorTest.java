@@ -0,0 +1,131 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class XmlBundleProcessorTest {
+
+    private final XmlProcessingService xmlProcessingService = mock(XmlProcessingService.class);
+
+    @Test
+    void zipEntriesAreStreamedAndPersistedInChunksWithOneResultEach() throws IOException {
+        ProcessingConfig config = new ProcessingConfig();
+        config.setCommitChunkSize(2);
+        XmlBundleProcessor processor = new XmlBundleProcessor(xmlProcessingService, config,
+                new ProcessingMetrics(new SimpleMeterRegistry()));
+        doCallRealMethod().when(xmlProcessingService).requireWritten(anyList(), anyList(), anyString());
+
+        when(xmlProcessingService.parseXml(any(InputStream.class), anyString())).thenAnswer(invocation -> {
+            // O parser lê e fecha o stream da entrada, como o DocumentBuilder
+            String content;
+            try (InputStream is = invocation.getArgument(0)) {
+                content = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            if (content.contains("<NOTA")) {
+                NfXmlEntity entity = new NfXmlEntity();
+                entity.setNrNotaFiscal(content.replaceAll("\\D", ""));
+                entity.setDsLinkXml(invocation.getArgument(1));
+                return List.of(entity);
+            }
+            throw new IOException("Erro ao parsear XML " + invocation.getArgument(1));
+        });
+        when(xmlProcessingService.persistSources(anyList())).thenAnswer(invocation -> {
+            List<List<NfXmlEntity>> chunk = invocation.getArgument(0);
+            return chunk.stream()
+                    .flatMap(List::stream)
+                    .map(entity -> "3".equals(entity.getNrNotaFiscal())
+                            ? NfXmlWriteResult.duplicate()
+                            : NfXmlWriteResult.inserted())
+                    .toList();
+        });
+
+        byte[] zip = zip(
+                "a/1.xml", "<NOTA>1</NOTA>",
+                "leiame.txt", "ignorado",
+                "2.xml", "quebrado",
+                "3.xml", "<NOTA>3</NOTA>",
+                "4.xml", "<NOTA>4</NOTA>");
+
+        XmlBundleProcessor.BundleResult result = processor.process(new ByteArrayInputStream(zip), "lote.zip");
+
+        assertThat(result.entries()).extracting(XmlBundleProcessor.EntryResult::entry)
+                .containsExactly("a/1.xml", "2.xml", "3.xml", "4.xml");
+        assertThat(result.entries()).extracting(XmlBundleProcessor.EntryResult::status).containsExactly(
+                NfXmlWriteResult.Status.INSERTED, NfXmlWriteResult.Status.FAILED,
+                NfXmlWriteResult.Status.DUPLICATE, NfXmlWriteResult.Status.INSERTED);
+        assertThat(result.entries().get(2).error()).isInstanceOf(DuplicateNfException.class);
+        assertThat(result.isSuccessful()).isFalse();
+        // [1, 3] ao completar o chunk e [4] no fim do pacote
+        verify(xmlProcessingService, times(2)).persistSources(anyList());
+        verify(xmlProcessingService).parseXml(any(InputStream.class), eq("lote.zip!a/1.xml"));
+    }
+
+    @Test
+    void gzipBundleHoldsASingleXml() throws IOException {
+        XmlBundleProcessor processor = new XmlBundleProcessor(xmlProcessingService, new ProcessingConfig(),
+                new ProcessingMetrics(new SimpleMeterRegistry()));
+        when(xmlProcessingService.parseXml(any(InputStream.class), anyString())).thenAnswer(invocation -> {
+            InputStream is = invocation.getArgument(0);
+            assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("<NOTA>7</NOTA>");
+            return List.of(new NfXmlEntity());
+        });
+        when(xmlProcessingService.persistSources(anyList())).thenReturn(List.of(NfXmlWriteResult.inserted()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write("<NOTA>7</NOTA>".getBytes(StandardCharsets.UTF_8));
+        }
+
+        XmlBundleProcessor.BundleResult result =
+                processor.process(new ByteArrayInputStream(bytes.toByteArray()), "nota-7.xml.gz");
+
+        assertThat(result.entries()).extracting(XmlBundleProcessor.EntryResult::entry).containsExactly("nota-7.xml");
+        assertThat(result.isSuccessful()).isTrue();
+    }
+
+    @Test
+    void recognizesBundleExtensions() {
+        assertThat(XmlBundleProcessor.isBundle("LOTE.ZIP")).isTrue();
+        assertThat(XmlBundleProcessor.isBundle("nota.xml.gz")).isTrue();
+        assertThat(XmlBundleProcessor.isBundle("nota.xml")).isFalse();
+        assertThat(XmlBundleProcessor.isBundle("backup.tar.gz")).isFalse();
+        assertThat(XmlBundleProcessor.isIngestible("app.log.gz")).isFalse();
+        assertThat(XmlBundleProcessor.isIngestible("nota.xml")).isTrue();
+        assertThat(XmlBundleProcessor.isIngestible("nota.done")).isFalse();
+    }
+
+    private static byte[] zip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
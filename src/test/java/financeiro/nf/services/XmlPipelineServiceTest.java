@@ -0,0 +1,150 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class XmlPipelineServiceTest {
+
+    private static final String DIR = "/nfs/NFe";
+
+    private final FtpService ftpService = mock(FtpService.class);
+    private final FtpSession session = mock(FtpSession.class);
+    private final XmlProcessingService xmlProcessingService = mock(XmlProcessingService.class);
+    private final ArchiveLayout archiveLayout = mock(ArchiveLayout.class);
+    private final RetryLedgerService retryLedger = mock(RetryLedgerService.class);
+    private final ProcessingConfig processingConfig = new ProcessingConfig();
+    private final List<String> moved = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void givenFtpAndDatabase() throws IOException {
+        when(ftpService.openSession()).thenReturn(session);
+        when(session.retrieveFile(anyString())).thenAnswer(invocation ->
+                new ByteArrayInputStream(invocation.<String>getArgument(0).getBytes(StandardCharsets.UTF_8)));
+        when(xmlProcessingService.parseXml(any(), anyString())).thenAnswer(invocation -> List.of(new NfXmlEntity()));
+        when(xmlProcessingService.persistSources(anyList())).thenAnswer(invocation ->
+                invocation.<List<List<NfXmlEntity>>>getArgument(0).stream()
+                        .flatMap(List::stream)
+                        .map(entity -> NfXmlWriteResult.inserted())
+                        .toList());
+        doAnswer(invocation -> {
+            moved.add(invocation.getArgument(2));
+            return null;
+        }).when(archiveLayout).moveToProcessed(any(), eq(DIR), anyString());
+    }
+
+    @Test
+    void singleWorkerStagesPersistBeforeMovingAndKeepTheListingOrder() throws IOException {
+        processingConfig.setFetchWorkers(1);
+        processingConfig.setParseWorkers(1);
+        processingConfig.setPersistWorkers(1);
+        processingConfig.setMoveWorkers(1);
+        List<String> files = List.of("a.xml", "b.xml", "c.xml");
+
+        XmlPipelineService.PipelineResult result = pipeline().run(files, DIR, Long.MAX_VALUE);
+
+        assertThat(result.processed()).isEqualTo(3);
+        assertThat(result.unsettled()).isEmpty();
+        assertThat(moved).containsExactly("a.xml", "b.xml", "c.xml");
+        InOrder order = inOrder(xmlProcessingService, archiveLayout);
+        order.verify(xmlProcessingService).parseXml(any(), eq("a.xml"));
+        order.verify(xmlProcessingService).persistSources(anyList());
+        order.verify(archiveLayout).moveToProcessed(any(), eq(DIR), eq("a.xml"));
+    }
+
+    @Test
+    void poisonPillsReachEveryWorkerEvenWhenDrainedWithABatch() {
+        processingConfig.setFetchWorkers(3);
+        processingConfig.setParseWorkers(2);
+        processingConfig.setPersistWorkers(3);
+        processingConfig.setMoveWorkers(2);
+        processingConfig.setQueueCapacity(4);
+        processingConfig.setCommitChunkSize(5);
+        List<String> files = IntStream.range(0, 40).mapToObj(i -> "nf-" + i + ".xml").toList();
+
+        XmlPipelineService.PipelineResult result = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> pipeline().run(files, DIR, Long.MAX_VALUE));
+
+        assertThat(result.processed()).isEqualTo(40);
+        assertThat(moved).containsExactlyInAnyOrderElementsOf(files);
+        assertThat(assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> pipeline().run(List.of(), DIR, Long.MAX_VALUE)).processed()).isZero();
+    }
+
+    @Test
+    void failuresAreRoutedToErrorRetryOrLeftInPlaceWhenTheMoveFails() throws IOException {
+        IOException badXml = new IOException("Erro ao parsear XML bad.xml");
+        when(xmlProcessingService.parseXml(any(), eq("bad.xml"))).thenThrow(badXml);
+        IOException outage = new IOException("Erro no download", new SocketTimeoutException("Read timed out"));
+        when(session.retrieveFile(DIR + "/later.xml")).thenThrow(outage);
+        when(retryLedger.shouldRetry(anyString(), eq("later.xml"), any())).thenReturn(true);
+        doThrow(new FtpService.FtpReplyException("553 Could not rename", 553))
+                .when(archiveLayout).moveToProcessed(any(), eq(DIR), eq("stuck.xml"));
+
+        XmlPipelineService.PipelineResult result = pipeline()
+                .run(List.of("ok.xml", "bad.xml", "later.xml", "stuck.xml"), DIR, Long.MAX_VALUE);
+
+        verify(archiveLayout).moveToError(any(), eq(DIR), eq("bad.xml"));
+        verify(archiveLayout, never()).moveToError(any(), eq(DIR), eq("later.xml"));
+        // Move que falhou não conta como processado
+        assertThat(result.processed()).isEqualTo(1);
+        assertThat(result.failed()).isEqualTo(1);
+        assertThat(result.unsettled()).containsExactly("later.xml", "stuck.xml");
+        assertThat(result.notStarted()).isEmpty();
+    }
+
+    @Test
+    void aFatalErrorInAStageEndsTheRunAndIsRethrown() throws IOException {
+        processingConfig.setQueueCapacity(1);
+        OutOfMemoryError oom = new OutOfMemoryError("Java heap space");
+        when(xmlProcessingService.parseXml(any(), anyString())).thenThrow(oom);
+        List<String> files = IntStream.range(0, 20).mapToObj(i -> "nf-" + i + ".xml").toList();
+
+        assertThatThrownBy(() -> assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> pipeline().run(files, DIR, Long.MAX_VALUE))).isSameAs(oom);
+        assertThat(moved).isEmpty();
+    }
+
+    @Test
+    void nothingEntersThePipelineAfterTheDeadline() throws IOException {
+        XmlPipelineService.PipelineResult result = pipeline().run(List.of("a.xml", "b.xml"), DIR, 0);
+
+        assertThat(result.processed()).isZero();
+        assertThat(result.unsettled()).containsExactly("a.xml", "b.xml");
+        assertThat(result.notStarted()).containsExactly("a.xml", "b.xml");
+        verify(session, never()).retrieveFile(anyString());
+    }
+
+    private XmlPipelineService pipeline() {
+        return new XmlPipelineService(ftpService, xmlProcessingService, processingConfig, new CommitRateTracker(),
+                archiveLayout, mock(FileSpool.class), retryLedger, new ProcessingMetrics(new SimpleMeterRegistry()));
+    }
+}
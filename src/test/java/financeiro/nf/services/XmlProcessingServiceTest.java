@@ -0,0 +1,287 @@
+package financeiro.nf.services;
+
+import financeiro.nf.config.FtpConfig;
+import financeiro.nf.config.ProcessingConfig;
+import financeiro.nf.models.NfXmlEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class XmlProcessingServiceTest {
+
+    private final XmlProcessingService service = new XmlProcessingService(null, new ProcessingConfig(), null, null, null,
+            null, null, new ProcessingMetrics(new SimpleMeterRegistry()));
+
+    @ParameterizedTest
+    @ValueSource(strings = {"nfse-nota.xml", "nfe-reg20.xml", "nfe-reg20-default-ns.xml"})
+    void staxExtractsSameValuesAsDom(String resource) throws IOException {
+        List<NfXmlEntity> dom;
+        try (InputStream is = open(resource)) {
+            dom = service.parseXmlDom(is, resource);
+        }
+        List<NfXmlEntity> stax;
+        try (InputStream is = open(resource)) {
+            stax = service.parseXmlStax(is, resource);
+        }
+
+        assertThat(stax).hasSameSizeAs(dom);
+        // Nota sem data de emissão recebe o instante do parse nos dois motores
+        assertThat(stax)
+                .usingRecursiveComparison()
+                .ignoringFields("dtAtualizacao")
+                .withEqualsForType((a, b) -> Duration.between(a, b).abs().getSeconds() < 5, LocalDateTime.class)
+                .isEqualTo(dom);
+    }
+
+    @Test
+    void staxReadsEveryNfseNote() throws IOException {
+        List<NfXmlEntity> entities;
+        try (InputStream is = open("nfse-nota.xml")) {
+            entities = service.parseXmlStax(is, "nfse-nota.xml");
+        }
+
+        // O NOTA aninhado não é uma nota do lote
+        assertThat(entities).extracting(NfXmlEntity::getNrNotaFiscal).containsExactly("2024000123", "2024000124");
+        assertThat(entities).extracting(NfXmlEntity::getNrItemNf).containsExactly(1L, 1L);
+        NfXmlEntity entity = entities.get(0);
+
+        assertThat(entity.getNrNotaFiscal()).isEqualTo("2024000123");
+        assertThat(entity.getCdSerieNf()).isEqualTo("E");
+        assertThat(entity.getCdCgcEmitente()).isEqualTo("12345678000190");
+        assertThat(entity.getCdCgc()).isEqualTo("98765432000110");
+        assertThat(entity.getDtEmissao()).isEqualTo(LocalDateTime.of(2024, 3, 15, 0, 0));
+        assertThat(entity.getVlTotalNota()).isEqualByComparingTo(new BigDecimal("1500.00"));
+        assertThat(entity.getVlLiquido()).isEqualByComparingTo(new BigDecimal("1425.75"));
+        assertThat(entity.getVlDescontos()).isEqualByComparingTo(new BigDecimal("10.50"));
+        assertThat(entity.getDsObservacao()).hasSize(255).startsWith("Serviços médicos");
+        assertThat(entity.getDsLinkXml()).isEqualTo("nfse-nota.xml");
+    }
+
+    @Test
+    void staxReadsNamespacedNfe() throws IOException {
+        NfXmlEntity entity;
+        try (InputStream is = open("nfe-reg20.xml")) {
+            entity = service.parseXmlStax(is, "nfe-reg20.xml").get(0);
+        }
+
+        assertThat(entity.getNrNotaFiscal()).isEqualTo("000456");
+        assertThat(entity.getCdSerieNf()).isEqualTo("1");
+        assertThat(entity.getCdCgc()).isEqualTo("55566677788");
+        assertThat(entity.getDtEmissao()).isEqualTo(LocalDateTime.of(2024, 2, 5, 0, 0));
+        assertThat(entity.getVlTotalNota()).isEqualByComparingTo(new BigDecimal("2340.10"));
+    }
+
+    @Test
+    void unknownFormatUsesDefaultsInBothEngines() throws IOException {
+        NfXmlEntity dom;
+        try (InputStream is = open("unknown-format.xml")) {
+            dom = service.parseXmlDom(is, "unknown-format.xml").get(0);
+        }
+        NfXmlEntity stax;
+        try (InputStream is = open("unknown-format.xml")) {
+            stax = service.parseXmlStax(is, "unknown-format.xml").get(0);
+        }
+
+        assertThat(stax)
+                .usingRecursiveComparison()
+                .ignoringFields("dtAtualizacao", "dtEmissao")
+                .isEqualTo(dom);
+        assertThat(stax.getNrNotaFiscal()).isEqualTo("000000");
+        assertThat(stax.getCdSerieNf()).isEqualTo("001");
+    }
+
+    @Test
+    void xmlComplKeepsOriginalFileContent() throws IOException {
+        String original;
+        try (InputStream is = open("nfse-nota.xml")) {
+            original = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        NfXmlEntity entity;
+        try (InputStream is = open("nfse-nota.xml")) {
+            entity = service.parseXmlStax(is, "nfse-nota.xml").get(0);
+        }
+
+        assertThat(entity.getDsXmlCompl()).isEqualTo(original);
+    }
+
+    @Test
+    void xmlComplIsTruncatedAndDecodedWithDeclaredEncoding() throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><NOTA><NUMERO>1</NUMERO>"
+                + "<DISCRIMINACAO>" + "Serviço ".repeat(1000) + "</DISCRIMINACAO></NOTA>";
+        byte[] content = xml.getBytes(StandardCharsets.ISO_8859_1);
+
+        NfXmlEntity stax = service.parseXmlStax(new ByteArrayInputStream(content), "latin1.xml").get(0);
+        NfXmlEntity dom = service.parseXmlDom(new ByteArrayInputStream(content), "latin1.xml").get(0);
+
+        assertThat(stax.getDsXmlCompl()).isEqualTo(xml.substring(0, XmlProcessingService.XML_COMPL_MAX_LENGTH));
+        assertThat(dom.getDsXmlCompl()).isEqualTo(stax.getDsXmlCompl());
+    }
+
+    @Test
+    void itemsOfTheSameNfeNoteAreNumberedAndTotalled() throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><ns:SDTNFe xmlns:ns=\"NFe\"><ns:Reg20>"
+                + item("10", "100,00") + item("10", "50,25") + item("11", "7,00") + item("10", "1,00")
+                + "</ns:Reg20></ns:SDTNFe>";
+        byte[] content = xml.getBytes(StandardCharsets.UTF_8);
+
+        for (List<NfXmlEntity> entities : List.of(
+                service.parseXmlStax(new ByteArrayInputStream(content), "itens.xml"),
+                service.parseXmlDom(new ByteArrayInputStream(content), "itens.xml"))) {
+            // Itens da mesma nota ficam juntos, na ordem do arquivo
+            assertThat(entities).extracting(NfXmlEntity::getNrNotaFiscal).containsExactly("10", "10", "10", "11");
+            assertThat(entities).extracting(NfXmlEntity::getNrItemNf).containsExactly(1L, 2L, 3L, 1L);
+            assertThat(entities.get(1).getVlTotalItemNf()).isEqualByComparingTo(new BigDecimal("50.25"));
+            assertThat(entities.subList(0, 3)).allSatisfy(entity ->
+                    assertThat(entity.getVlTotalNota()).isEqualByComparingTo(new BigDecimal("151.25")));
+            assertThat(entities.get(3).getVlTotalNota()).isEqualByComparingTo(new BigDecimal("7.00"));
+        }
+    }
+
+    @Test
+    void fileIsDuplicateOnlyWhenNoRowWasInserted() throws IOException {
+        List<NfXmlEntity> entities = List.of(new NfXmlEntity(), new NfXmlEntity());
+
+        service.requireWritten(entities, List.of(NfXmlWriteResult.duplicate(), NfXmlWriteResult.inserted()), "a.xml");
+        assertThatThrownBy(() -> service.requireWritten(entities,
+                        List.of(NfXmlWriteResult.duplicate(), NfXmlWriteResult.duplicate()), "b.xml"))
+                .isInstanceOf(DuplicateNfException.class);
+        assertThatThrownBy(() -> service.requireWritten(entities,
+                        List.of(NfXmlWriteResult.inserted(), NfXmlWriteResult.failed(new IllegalStateException())), "c.xml"))
+                .isInstanceOf(IOException.class)
+                .isNotInstanceOf(DuplicateNfException.class);
+    }
+
+    @Test
+    void failingChunkIsBisectedUntilOnlyTheBadNoteFails() {
+        NfXmlMergeWriter mergeWriter = mock(NfXmlMergeWriter.class);
+        CommitRateTracker commits = new CommitRateTracker();
+        XmlProcessingService persisting = persistingService(mergeWriter, commits);
+
+        List<NfXmlEntity> notes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            NfXmlEntity entity = new NfXmlEntity();
+            entity.setNrNotaFiscal(String.valueOf(i));
+            notes.add(entity);
+        }
+        NfXmlEntity bad = notes.get(3);
+        when(mergeWriter.mergeAll(anyList())).thenAnswer(invocation -> {
+            List<NfXmlEntity> chunk = invocation.getArgument(0);
+            if (chunk.stream().anyMatch(entity -> entity == bad)) {
+                throw new DataIntegrityViolationException("ORA-12899");
+            }
+            return Collections.nCopies(chunk.size(), NfXmlWriteResult.inserted());
+        });
+
+        List<NfXmlWriteResult> results = persisting.persistAll(notes);
+
+        assertThat(results).extracting(NfXmlWriteResult::status).containsExactly(
+                NfXmlWriteResult.Status.INSERTED, NfXmlWriteResult.Status.INSERTED, NfXmlWriteResult.Status.INSERTED,
+                NfXmlWriteResult.Status.FAILED, NfXmlWriteResult.Status.INSERTED);
+        // [0,1] e [2] e [4] gravados em três commits; [3] isolado sem commit
+        assertThat(commits.getTotalCommits()).isEqualTo(3);
+    }
+
+    @Test
+    void sameNoteEndingOneFileAndStartingTheNextIsNotMergedIntoOneNote() {
+        NfXmlMergeWriter mergeWriter = mock(NfXmlMergeWriter.class);
+        XmlProcessingService persisting = persistingService(mergeWriter, new CommitRateTracker());
+        // Índice único (nota, série, item): chave repetida no chunk ou já gravada viola o índice
+        Set<String> table = new HashSet<>();
+        when(mergeWriter.mergeAll(anyList())).thenAnswer(invocation -> {
+            List<NfXmlEntity> chunk = invocation.getArgument(0);
+            Set<String> keys = new HashSet<>();
+            for (NfXmlEntity entity : chunk) {
+                String key = entity.getNrNotaFiscal() + "/" + entity.getNrItemNf();
+                if (table.contains(key) || !keys.add(key)) {
+                    throw new DuplicateKeyException("ORA-00001");
+                }
+            }
+            table.addAll(keys);
+            return Collections.nCopies(chunk.size(), NfXmlWriteResult.inserted());
+        });
+
+        List<NfXmlWriteResult> results = persisting.persistSources(List.of(
+                List.of(note("9", 1L), note("10", 1L)),
+                List.of(note("10", 1L), note("11", 1L))));
+
+        // A nota 10 do segundo arquivo é isolada da do primeiro, e a 11 é gravada
+        assertThat(results).extracting(NfXmlWriteResult::status).containsExactly(
+                NfXmlWriteResult.Status.INSERTED, NfXmlWriteResult.Status.INSERTED,
+                NfXmlWriteResult.Status.DUPLICATE, NfXmlWriteResult.Status.INSERTED);
+    }
+
+    @Test
+    void unavailableDatabaseFailsTheChunkAfterRetriesWithoutBisecting() {
+        NfXmlMergeWriter mergeWriter = mock(NfXmlMergeWriter.class);
+        CommitRateTracker commits = new CommitRateTracker();
+        XmlProcessingService persisting = persistingService(mergeWriter, commits);
+        when(mergeWriter.mergeAll(anyList()))
+                .thenThrow(new CannotGetJdbcConnectionException("Connection is not available, request timed out"));
+
+        List<NfXmlEntity> notes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            NfXmlEntity entity = new NfXmlEntity();
+            entity.setNrNotaFiscal(String.valueOf(i));
+            notes.add(entity);
+        }
+
+        List<NfXmlWriteResult> results = persisting.persistAll(notes);
+
+        assertThat(results).extracting(NfXmlWriteResult::status).containsOnly(NfXmlWriteResult.Status.FAILED);
+        // Uma chamada e as duas novas tentativas de file.processing.db-retry-count, sem dividir o chunk
+        verify(mergeWriter, times(3)).mergeAll(anyList());
+        assertThat(commits.getTotalCommits()).isZero();
+    }
+
+    private static XmlProcessingService persistingService(NfXmlMergeWriter mergeWriter, CommitRateTracker commits) {
+        ProcessingConfig config = new ProcessingConfig();
+        ProcessingMetrics metrics = new ProcessingMetrics(new SimpleMeterRegistry());
+        ResilienceService resilience = new ResilienceService(new FtpConfig(), config, metrics,
+                Clock.systemUTC(), millis -> { });
+        return new XmlProcessingService(null, config, null, mergeWriter, mock(DuplicateKeyIndex.class), commits,
+                resilience, metrics);
+    }
+
+    private static NfXmlEntity note(String number, Long item) {
+        NfXmlEntity entity = new NfXmlEntity();
+        entity.setNrNotaFiscal(number);
+        entity.setNrItemNf(item);
+        return entity;
+    }
+
+    private static String item(String number, String value) {
+        return "<ns:Reg20Item><ns:TipoNf>N</ns:TipoNf><ns:NumNf>" + number + "</ns:NumNf><ns:SerNf>1</ns:SerNf>"
+                + "<ns:DtEmiNf>05/02/2024</ns:DtEmiNf><ns:VlNFS>" + value + "</ns:VlNFS></ns:Reg20Item>";
+    }
+
+    private InputStream open(String resource) {
+        return getClass().getResourceAsStream("/xml/" + resource);
+    }
+}
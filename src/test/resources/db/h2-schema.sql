@@ -0,0 +1,75 @@
+-- Tabela da aplicação no H2 em modo Oracle, para o teste de carga (NfeProcessingLoadTest).
+-- Mesmas colunas da NfXmlEntity e mesmos objetos de db/oracle-ddl.sql.
+CREATE SCHEMA IF NOT EXISTS WEBSERVICE;
+
+-- NUMTODSINTERVAL do Oracle, usado nas datas das tabelas de reserva e de novas tentativas (só 'SECOND')
+CREATE ALIAS IF NOT EXISTS NUMTODSINTERVAL AS 'java.time.Duration numToDsInterval(double amount, String unit) {
+    return java.time.Duration.ofNanos((long) (amount * 1e9));
+}';
+
+CREATE SEQUENCE IF NOT EXISTS WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS_SEQ START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS (
+    NR_SEQUENCIA          NUMBER(19)     NOT NULL PRIMARY KEY,
+    CD_ESTABELECIMENTO    NUMBER(19),
+    CD_CGC_EMITENTE       VARCHAR2(14),
+    CD_SERIE_NF           VARCHAR2(255),
+    NR_SEQUENCIA_NF       NUMBER(19),
+    CD_OPERACAO_NF        NUMBER(19),
+    DT_EMISSAO            TIMESTAMP,
+    DT_ENTRADA_SAIDA      TIMESTAMP,
+    IE_ACAO_NF            VARCHAR2(1),
+    IE_EMISSAO_NF         VARCHAR2(1),
+    IE_TIPO_FRETE         VARCHAR2(1),
+    VL_MERCADORIA         NUMBER(15, 2),
+    VL_TOTAL_NOTA         NUMBER(15, 2),
+    QT_PESO_BRUTO         NUMBER(15, 4),
+    QT_PESO_LIQUIDO       NUMBER(15, 4),
+    DT_ATUALIZACAO        TIMESTAMP,
+    NM_USUARIO            VARCHAR2(15),
+    CD_CONDICAO_PAGAMENTO NUMBER(19),
+    DT_CONTABIL           TIMESTAMP,
+    CD_CGC                VARCHAR2(14),
+    CD_PESSOA_FISICA      VARCHAR2(10),
+    VL_IPI                NUMBER(15, 2),
+    VL_DESCONTOS          NUMBER(15, 2),
+    VL_FRETE              NUMBER(15, 2),
+    VL_SEGURO             NUMBER(15, 2),
+    VL_DESPESA_ACESSORIA  NUMBER(15, 2),
+    DS_OBSERVACAO         VARCHAR2(4000),
+    NR_NOTA_FISCAL        VARCHAR2(255),
+    NR_DANFE              VARCHAR2(60),
+    IE_NF_ELETRONICA      VARCHAR2(1),
+    DS_XML_COMPL          VARCHAR2(4000),
+    DS_LINK_XML           VARCHAR2(255),
+    DT_TRANSMISSAO_NFE    TIMESTAMP,
+    DT_CANCELAMENTO       TIMESTAMP,
+    DS_MOTIVO_CANCEL_NFE  VARCHAR2(4000),
+    NR_ITEM_NF            NUMBER(19)     NOT NULL,
+    QT_ITEM_NF            NUMBER(15, 4)  NOT NULL,
+    VL_UNITARIO_ITEM_NF   NUMBER(15, 4)  NOT NULL,
+    VL_TOTAL_ITEM_NF      NUMBER(15, 2)  NOT NULL,
+    VL_DESCONTO           NUMBER(15, 2)  NOT NULL,
+    VL_LIQUIDO            NUMBER(15, 2)  NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS_UK
+    ON WEBSERVICE.NF_NFITEM_NFANEXO_XMLFS (NR_NOTA_FISCAL, CD_SERIE_NF, NR_ITEM_NF);
+
+CREATE TABLE IF NOT EXISTS WEBSERVICE.NF_XML_CLAIM (
+    DS_ARQUIVO       VARCHAR2(1000) NOT NULL PRIMARY KEY,
+    NM_NODE          VARCHAR2(255)  NOT NULL,
+    DT_CLAIM         TIMESTAMP      NOT NULL,
+    DT_LEASE_EXPIRA  TIMESTAMP      NOT NULL,
+    DT_CONCLUSAO     TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS WEBSERVICE.NF_XML_RETRY (
+    DS_ARQUIVO            VARCHAR2(1000) NOT NULL PRIMARY KEY,
+    DS_ORIGEM             VARCHAR2(1000) NOT NULL,
+    QT_TENTATIVAS         NUMBER(10)     NOT NULL,
+    NM_CLASSE_ERRO        VARCHAR2(255),
+    DS_ERRO               VARCHAR2(1000),
+    DT_ULTIMA_FALHA       TIMESTAMP      NOT NULL,
+    DT_PROXIMA_TENTATIVA  TIMESTAMP      NOT NULL
+);